@@ -0,0 +1,58 @@
+package ca.hullabaloo.data.bloom;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bits that may be set from many threads at once.  Writers CAS the bit into its
+ * word; readers never lock.
+ */
+final class AtomicLongBits implements Bits {
+    private final AtomicLongArray words;
+
+    AtomicLongBits(int size) {
+        this.words = new AtomicLongArray(LongBits.wordsFor(size));
+    }
+
+    public int size() {
+        return words.length() << 6;
+    }
+
+    public boolean get(int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    public boolean set(int index) {
+        int w = index >>> 6;
+        long mask = 1L << index;
+        long old = words.get(w);
+        // bits are only ever set, so once we see ours we're done
+        while ((old & mask) == 0) {
+            if (words.compareAndSet(w, old, old | mask))
+                return true;
+            old = words.get(w);
+        }
+        return false;
+    }
+
+    public int words() {
+        return words.length();
+    }
+
+    public long word(int index) {
+        return words.get(index);
+    }
+
+    public void or(int index, long bits) {
+        long old;
+        do {
+            old = words.get(index);
+        } while ((old | bits) != old && !words.compareAndSet(index, old, old | bits));
+    }
+
+    public void and(int index, long bits) {
+        long old;
+        do {
+            old = words.get(index);
+        } while ((old & bits) != old && !words.compareAndSet(index, old, old & bits));
+    }
+}
@@ -0,0 +1,35 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * Fixed size bit array backing a bloom filter, stored as 64-bit words
+ */
+interface Bits {
+    /**
+     * Number of addressable bits
+     */
+    int size();
+
+    boolean get(int index);
+
+    /**
+     * Sets a bit, returning true if it was previously clear
+     */
+    boolean set(int index);
+
+    /**
+     * Number of 64-bit words
+     */
+    int words();
+
+    long word(int index);
+
+    /**
+     * ORs {@code bits} into a word
+     */
+    void or(int index, long bits);
+
+    /**
+     * ANDs {@code bits} into a word
+     */
+    void and(int index, long bits);
+}
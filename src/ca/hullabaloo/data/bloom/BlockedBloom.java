@@ -0,0 +1,110 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * A bloom filter that keeps all of an element's bits in one 64-byte block (a
+ * cache line), so a lookup costs a single memory access instead of k.  The
+ * price is a somewhat higher false positive rate for the same number of bits,
+ * since blocks fill unevenly.
+ * <p/>
+ * See Putze, Sanders &amp; Singler, "Cache-, Hash- and Space-Efficient Bloom Filters".
+ */
+public class BlockedBloom<E> {
+    static final int BLOCK_BITS = 512;
+    private static final int WORDS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+    private static final int BLOCK_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(BLOCK_BITS);
+
+    private final long[] data;
+    private final long blocks;
+    private final int probes;
+    private final ThreadLocal<HashIter> bufs;
+
+    /**
+     * @param bits   size of the filter, rounded up to a whole number of blocks
+     * @param probes number of bits set per element (k)
+     */
+    public BlockedBloom(Hash<E> hash, int bits, int probes) {
+        if (bits <= 0 || bits > Bloom.MAX_BITS)
+            throw new IllegalArgumentException("bits out of range:" + bits);
+        int blocks = (int) (((long) bits + BLOCK_BITS - 1) / BLOCK_BITS);
+        this.data = new long[blocks * WORDS_PER_BLOCK];
+        this.blocks = blocks;
+        this.probes = probes;
+        this.bufs = new Hashes(hash, blocks, probes);
+    }
+
+    /**
+     * A filter sized to hold {@code expectedInsertions} elements with a false
+     * positive rate of {@code fpp}.  Needs more bits than {@link Bloom#create}
+     * for the same rate.
+     */
+    public static <E> BlockedBloom<E> create(Hash<E> hash, long expectedInsertions, double fpp) {
+        long bits = Bloom.optimalBits(expectedInsertions, fpp);
+        int probes = Bloom.optimalProbes(expectedInsertions, (int) bits);
+        // grow until the blocked estimate meets the target; usually 10-30% more bits
+        while (bits < Bloom.MAX_BITS && expectedFpp(expectedInsertions, bits, probes) > fpp)
+            bits = Math.min(Bloom.MAX_BITS, bits + bits / 20);
+        return new BlockedBloom<E>(hash, (int) bits, probes);
+    }
+
+    /**
+     * False positive rate after n insertions: the number of elements landing in a block
+     * is ~Poisson(n/blocks), and each block behaves like a classic filter of 512 bits.
+     */
+    static double expectedFpp(long n, long bits, int probes) {
+        double lambda = (double) n * BLOCK_BITS / bits;
+        double term = Math.exp(-lambda);   // Pr[i elements in the block], starting at i=0
+        double fpp = 0;
+        for (int i = 0; i < lambda * 4 + 32; i++) {
+            double blockFpp = Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) i * probes), probes);
+            fpp += term * blockFpp;
+            term *= lambda / (i + 1);
+        }
+        return fpp;
+    }
+
+    public void add(E o) {
+        HashIter h = bufs.get();
+        h.reset(o);
+        long x = HashIter.mix(h.h1() ^ Long.rotateLeft(h.h2(), 32));
+        int base = block(x);
+        long a = x << 32, b = HashIter.mix(x) | 1;
+        for (int i = 0; i < probes; i++, a += b) {
+            int bit = (int) (a >>> BLOCK_SHIFT);
+            data[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean probablyContains(E o) {
+        HashIter h = bufs.get();
+        h.reset(o);
+        long x = HashIter.mix(h.h1() ^ Long.rotateLeft(h.h2(), 32));
+        int base = block(x);
+        long a = x << 32, b = HashIter.mix(x) | 1;
+        for (int i = 0; i < probes; i++, a += b) {
+            int bit = (int) (a >>> BLOCK_SHIFT);
+            if ((data[base + (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Size of the filter in bits
+     */
+    public long bitSize() {
+        // a filter at MAX_BITS rounds up to exactly 2^31 bits
+        return (long) data.length << 6;
+    }
+
+    public int probes() {
+        return probes;
+    }
+
+    /**
+     * index of the first word of the element's block, from the top half of the mixed hash;
+     * the bottom half seeds the positions inside the block
+     */
+    private int block(long x) {
+        return (int) (((x >>> 32) * blocks) >>> 32) * WORDS_PER_BLOCK;
+    }
+}
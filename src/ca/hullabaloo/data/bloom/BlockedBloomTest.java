@@ -0,0 +1,41 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+public class BlockedBloomTest extends TestCase {
+    private final BlockedBloom<String> b = new BlockedBloom<String>(new JavaObjectHash<String>(), 1200, 4);
+
+    public void testEmptyDoesNotContain() {
+        assertFalse(b.probablyContains("x"));
+    }
+
+    public void testAdd() {
+        b.add("foo");
+        assertTrue(b.probablyContains("foo"));
+    }
+
+    public void testRoundsUpToWholeBlocks() {
+        assertEquals(3 * 512, b.bitSize());
+    }
+
+    public void testSizedForTargetNeedsMoreBitsThanClassic() {
+        BlockedBloom<Integer> blocked = BlockedBloom.create(new JavaObjectHash<Integer>(), 100000, 0.01);
+        Bloom<Integer> classic = Bloom.create(new JavaObjectHash<Integer>(), 100000, 0.01);
+        assertTrue(blocked.bitSize() > classic.bitSize());
+        assertTrue(BlockedBloom.expectedFpp(100000, blocked.bitSize(), blocked.probes()) <= 0.01);
+    }
+
+    public void testFalsePositiveRateNearTarget() {
+        int n = 20 * 1000;
+        BlockedBloom<Integer> b = BlockedBloom.create(new JavaObjectHash<Integer>(), n, 0.01);
+        for (int i = 0; i < n; i++)
+            b.add(i);
+        for (int i = 0; i < n; i++)
+            assertTrue(b.probablyContains(i));
+        int falsePositives = 0;
+        for (int i = n; i < 11 * n; i++)
+            if (b.probablyContains(i)) falsePositives++;
+        double fpp = falsePositives / (10.0 * n);
+        assertTrue("fpp=" + fpp, fpp < 0.02);
+    }
+}
@@ -1,36 +1,126 @@
 package ca.hullabaloo.data.bloom;
 
-import java.util.BitSet;
+import java.util.Iterator;
 
 public class Bloom<E> {
     private static final int MIN_INITIAL_CAPACITY = 512;
+    /**
+     * keys per pass of the batch operations; one word of results
+     */
+    private static final int BATCH = Long.SIZE;
+    private static final int DEFAULT_PROBES = 2;
+    static final int MAX_BITS = Integer.MAX_VALUE & ~(Long.SIZE - 1);
 
-    private final BitSet data;
-    private final ThreadLocal<HashIter> bufs;
+    private final Hash<E> hash;
+    private final Bits data;
+    private final int probes;
+    private final Hashes bufs;
 
     public Bloom(Hash<E> hash, int minBits) {
-        int dataSize = nextPowerOfTwo(minBits);
-        this.data = new BitSet(dataSize);
-        this.bufs = new Hashes(hash, dataSize);
+        this(hash, minBits, false);
+    }
+
+    /**
+     * @param concurrent if true, {@link #add} may be called from many threads at once without
+     *                   external locking.  {@link #probablyContains} never locks in either mode.
+     */
+    public Bloom(Hash<E> hash, int minBits, boolean concurrent) {
+        this(hash, nextPowerOfTwo(minBits), DEFAULT_PROBES, concurrent);
+    }
+
+    /**
+     * @param bits   size of the filter, rounded up to a whole number of 64-bit words
+     * @param probes number of bits set per element (k)
+     */
+    public Bloom(Hash<E> hash, int bits, int probes, boolean concurrent) {
+        this(hash, concurrent ? new AtomicLongBits(checkBits(bits)) : new LongBits(checkBits(bits)), probes);
+    }
+
+    Bloom(Hash<E> hash, Bits data, int probes) {
+        this.hash = hash;
+        this.data = data;
+        this.probes = probes;
+        this.bufs = new Hashes(hash, data.size(), probes);
+    }
+
+    static int checkBits(int bits) {
+        if (bits <= 0 || bits > MAX_BITS)
+            throw new IllegalArgumentException("bits out of range:" + bits);
+        return bits;
+    }
+
+    /**
+     * A filter sized to hold {@code expectedInsertions} elements with a false
+     * positive rate of {@code fpp}; the bit count and probe count follow from those.
+     */
+    public static <E> Bloom<E> create(Hash<E> hash, long expectedInsertions, double fpp) {
+        return create(hash, expectedInsertions, fpp, false);
+    }
+
+    public static <E> Bloom<E> create(Hash<E> hash, long expectedInsertions, double fpp, boolean concurrent) {
+        int bits = optimalBits(expectedInsertions, fpp);
+        return new Bloom<E>(hash, bits, optimalProbes(expectedInsertions, bits), concurrent);
+    }
+
+    /**
+     * m = -n ln(p) / ln(2)^2, capped at the largest filter we can address
+     */
+    static int optimalBits(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0)
+            throw new IllegalArgumentException("expectedInsertions must be > 0:" + expectedInsertions);
+        if (!(fpp > 0 && fpp < 1))
+            throw new IllegalArgumentException("fpp must be in (0,1):" + fpp);
+        double bits = -expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2));
+        return (int) Math.min(MAX_BITS, Math.max(Long.SIZE, Math.ceil(bits)));
+    }
+
+    /**
+     * k = (m/n) ln(2)
+     */
+    static int optimalProbes(long expectedInsertions, int bits) {
+        return Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
     }
 
     public void add(E o) {
         HashIter hashes = bufs.get();
         hashes.reset(o);
-        System.out.println(data.size());
-        System.out.println(Integer.numberOfTrailingZeros(data.size()));
-        //       System.out.println(Arrays.toString(buf));
-
-        while (hashes.hasNext()) {
-            int h = hashes.next();
-            data.set(h);
-            System.out.println("add h=" + h);
-        }
+        bufs.added(hashes, 1);
+        while (hashes.hasNext())
+            data.set(hashes.next());
     }
 
     public boolean probablyContains(E o) {
         HashIter hasher = bufs.get();
         hasher.reset(o);
+        bufs.queried(hasher, 1);
+        return probablyContains(hasher);
+    }
+
+    /**
+     * Adds the element whose bytes are {@code data[offset, offset+length)}, without
+     * first making an {@code E} of them
+     *
+     * @throws UnsupportedOperationException unless this filter's hash is a {@link SliceHash}
+     */
+    public void add(byte[] data, int offset, int length) {
+        HashIter hashes = bufs.get();
+        hashes.reset(data, offset, length);
+        bufs.added(hashes, 1);
+        while (hashes.hasNext())
+            this.data.set(hashes.next());
+    }
+
+    /**
+     * @throws UnsupportedOperationException unless this filter's hash is a {@link SliceHash}
+     */
+    public boolean probablyContains(byte[] data, int offset, int length) {
+        HashIter hasher = bufs.get();
+        hasher.reset(data, offset, length);
+        bufs.queried(hasher, 1);
+        return probablyContains(hasher);
+    }
+
+    private boolean probablyContains(HashIter hasher) {
         if (hasher.hasNext()) {
             do {
                 int h = hasher.next();
@@ -41,7 +131,198 @@ public class Bloom<E> {
         return false;
     }
 
-    private int nextPowerOfTwo(int requested) {
+    public void addAll(E[] keys) {
+        addAll(keys, 0, keys.length);
+    }
+
+    public void addAll(E[] keys, int offset, int length) {
+        HashIter hashes = bufs.get();
+        int[] positions = hashes.scratch(BATCH * probes);
+        for (int start = offset, end = offset + length; start < end; start += BATCH) {
+            int n = Math.min(BATCH, end - start);
+            int p = 0;
+            for (int i = 0; i < n; i++)
+                p = positions(hashes, keys[start + i], positions, p);
+            setAll(positions, p);
+            bufs.added(hashes, n);
+        }
+    }
+
+    public void addAll(Iterable<? extends E> keys) {
+        HashIter hashes = bufs.get();
+        int[] positions = hashes.scratch(BATCH * probes);
+        Iterator<? extends E> iter = keys.iterator();
+        while (iter.hasNext()) {
+            int p = 0, n = 0;
+            for (; n < BATCH && iter.hasNext(); n++)
+                p = positions(hashes, iter.next(), positions, p);
+            setAll(positions, p);
+            bufs.added(hashes, n);
+        }
+    }
+
+    /**
+     * Tests many keys at once.  All of a batch's bit positions are computed before
+     * any are read, so the reads don't wait on each other and their cache misses overlap.
+     *
+     * @param resultBits receives one bit per key, set if {@code keys[i]} is probably present;
+     *                   bit i is {@code resultBits[i >>> 6] & (1L << i)}
+     * @return the number of keys probably present
+     */
+    public int probablyContainsAll(E[] keys, long[] resultBits) {
+        if (resultBits.length < LongBits.wordsFor(keys.length))
+            throw new IllegalArgumentException("need " + LongBits.wordsFor(keys.length) + " result words");
+        HashIter hashes = bufs.get();
+        int[] positions = hashes.scratch(BATCH * probes);
+        int found = 0;
+        for (int start = 0; start < keys.length; start += BATCH) {
+            int n = Math.min(BATCH, keys.length - start);
+            int p = 0;
+            for (int i = 0; i < n; i++)
+                p = positions(hashes, keys[start + i], positions, p);
+
+            // nothing here waits on a hash, so the CPU can run ahead into the next keys' reads
+            long result = 0;
+            for (int i = 0; i < n; i++) {
+                int j = i * probes, end = j + probes;
+                while (j < end && data.get(positions[j])) j++;
+                if (j == end) result |= 1L << i;
+            }
+            resultBits[start >>> 6] = result;
+            found += Long.bitCount(result);
+        }
+        bufs.queried(hashes, keys.length);
+        return found;
+    }
+
+    private static int positions(HashIter hashes, Object key, int[] positions, int p) {
+        hashes.reset(key);
+        while (hashes.hasNext())
+            positions[p++] = hashes.next();
+        return p;
+    }
+
+    private void setAll(int[] positions, int count) {
+        for (int i = 0; i < count; i++)
+            data.set(positions[i]);
+    }
+
+    /**
+     * Adds everything in {@code other} to this filter, as if its elements had been
+     * added here.  Lets filters built separately (on other threads, other shards)
+     * be combined.
+     *
+     * @throws IllegalArgumentException if the filters aren't {@link #isCompatible compatible}
+     */
+    public void union(Bloom<E> other) {
+        checkCompatible(other);
+        for (int i = 0, N = data.words(); i < N; i++)
+            data.or(i, other.data.word(i));
+    }
+
+    /**
+     * Keeps only the bits also set in {@code other}.  The result probably contains
+     * everything in both filters, but it has more false positives than a filter
+     * built from the intersection itself.
+     *
+     * @throws IllegalArgumentException if the filters aren't {@link #isCompatible compatible}
+     */
+    public void intersect(Bloom<E> other) {
+        checkCompatible(other);
+        for (int i = 0, N = data.words(); i < N; i++)
+            data.and(i, other.data.word(i));
+    }
+
+    /**
+     * True if both filters have the same size, probe count and kind of {@link Hash},
+     * so an element sets the same bits in each
+     */
+    public boolean isCompatible(Bloom<?> other) {
+        return data.size() == other.data.size()
+                && probes == other.probes
+                && hash.getClass() == other.hash.getClass();
+    }
+
+    private void checkCompatible(Bloom<E> other) {
+        if (!isCompatible(other))
+            throw new IllegalArgumentException("filters differ in size, probes or hash");
+    }
+
+    /**
+     * An empty, non-concurrent filter compatible with this one
+     */
+    Bloom<E> emptyCopy() {
+        return new Bloom<E>(hash, new LongBits(data.size()), probes);
+    }
+
+    /**
+     * Number of bits set.  Reads every word, so costs about as much as a scan of the filter.
+     */
+    public long bitCount() {
+        long result = 0;
+        for (int i = 0, N = data.words(); i < N; i++)
+            result += Long.bitCount(data.word(i));
+        return result;
+    }
+
+    /**
+     * Estimated number of distinct elements added, from the fraction of bits set:
+     * n = -(m/k) ln(1 - X/m) (Swamidass &amp; Baldi).  Infinite once every bit is set.
+     */
+    public double approximateElementCount() {
+        double m = data.size();
+        return -m / probes * Math.log(1 - bitCount() / m);
+    }
+
+    /**
+     * The false positive rate a lookup has right now, (X/m)^k; compare it against what
+     * the filter was sized for to see it filling up
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bitCount() / data.size(), probes);
+    }
+
+    /**
+     * Elements added since creation, including repeats.  Counted in stripes, so
+     * threads adding at once rarely contend on the count.
+     */
+    public long addCount() {
+        return bufs.adds();
+    }
+
+    /**
+     * Counts {@code n} adds made elsewhere, such as in a filter {@link #union}ed into this one
+     */
+    void countAdds(long n) {
+        bufs.added(bufs.get(), n);
+    }
+
+    /**
+     * Lookups since creation; see {@link #addCount}
+     */
+    public long queryCount() {
+        return bufs.queries();
+    }
+
+    /**
+     * Size of the filter in bits
+     */
+    public int bitSize() {
+        return data.size();
+    }
+
+    /**
+     * Bits set (and tested) per element
+     */
+    public int probes() {
+        return probes;
+    }
+
+    Bits bits() {
+        return data;
+    }
+
+    private static int nextPowerOfTwo(int requested) {
         // Copied from java.util.ArrayDeque#allocateElements, but it's a well-known algorithm
         int result = MIN_INITIAL_CAPACITY;
         // Find the best power of two to hold elements.
@@ -60,62 +341,4 @@ public class Bloom<E> {
         }
         return result;
     }
-
-    private static class Hashes extends ThreadLocal<HashIter> {
-        private final Hash hash;
-        private final int bitsPerHash;
-        private final int maskPerHash;
-        private final int valuesPerHash = 2;
-
-        public Hashes(Hash hash, int dataSize) {
-            this.hash = hash;
-            this.bitsPerHash = Integer.numberOfTrailingZeros(dataSize);
-            this.maskPerHash = dataSize - 1;
-            if (this.bitsPerHash > Integer.SIZE)
-                throw new IllegalArgumentException();
-            if (this.valuesPerHash * bitsPerHash > hash.longSize() * Long.SIZE)
-                throw new IllegalArgumentException("too few bits returned by hash function");
-        }
-
-        @Override
-        protected HashIter initialValue() {
-            return new HashIter(this.hash, this.valuesPerHash, this.bitsPerHash, this.maskPerHash);
-        }
-    }
-
-    private static class HashIter {
-        private final Hash hash;
-        private final int valuesPerIter;
-        private final int bitsPerHash;
-        private final int maskPerHash;
-        private final long[] buf;
-        private int returnedValues = 0;
-
-        public HashIter(Hash hash, int valuesPerIter, int bitsPerHash, int maskPerHash) {
-            this.hash = hash;
-            this.valuesPerIter = valuesPerIter;
-            this.bitsPerHash = bitsPerHash;
-            this.maskPerHash = maskPerHash;
-            this.buf = new long[hash.longSize()];
-        }
-
-        // We're careful to only send E
-        @SuppressWarnings({"unchecked"})
-        public void reset(Object o) {
-            this.returnedValues = 0;
-            this.hash.hash(o, buf);
-        }
-
-        public boolean hasNext() {
-            return this.returnedValues < this.valuesPerIter;
-        }
-
-        public int next() {
-            this.returnedValues++;
-            int h = (int) (buf[0] & maskPerHash);
-            buf[0] >>>= bitsPerHash;
-            return h;
-        }
-
-    }
 }
@@ -0,0 +1,224 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class BloomSoakTest extends TestCase {
+    private static final int THREADS = 12;
+    private ExecutorService exec;
+
+    public void testConcurrentAddLosesNoBits() throws Exception {
+        final int PER_THREAD = 20 * 1000;
+        final Bloom<Integer> concurrent = new Bloom<Integer>(new JavaObjectHash<Integer>(), 1 << 16, true);
+        final CountDownLatch go = new CountDownLatch(1);
+
+        class A implements Callable<Long> {
+            private final int base;
+
+            A(int base) {
+                this.base = base;
+            }
+
+            public Long call() throws Exception {
+                go.await();
+                long start = System.nanoTime();
+                for (int i = 0; i < PER_THREAD; i++)
+                    concurrent.add(base + i);
+                return System.nanoTime() - start;
+            }
+        }
+
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (int t = 0; t < THREADS; t++)
+            results.add(exec.submit(new A(t * PER_THREAD)));
+        go.countDown();
+        for (Future<Long> r : results)
+            System.out.printf("%d concurrent adds in %d msecs\n",
+                    PER_THREAD, TimeUnit.NANOSECONDS.toMillis(r.get(1, TimeUnit.MINUTES)));
+
+        // the same keys added from one thread must set exactly the same bits
+        Bloom<Integer> expected = new Bloom<Integer>(new JavaObjectHash<Integer>(), 1 << 16);
+        for (int i = 0; i < THREADS * PER_THREAD; i++)
+            expected.add(i);
+        Bits e = expected.bits(), a = concurrent.bits();
+        assertEquals(e.words(), a.words());
+        for (int i = 0; i < e.words(); i++)
+            assertEquals("word " + i, e.word(i), a.word(i));
+        for (int i = 0; i < THREADS * PER_THREAD; i++)
+            assertTrue(concurrent.probablyContains(i));
+    }
+
+    public void testBlockedVersusClassic() {
+        int n = 4 * 1000 * 1000;
+        double fpp = 0.01;
+        Bloom<Integer> classic = Bloom.create(new JavaObjectHash<Integer>(), n, fpp);
+        BlockedBloom<Integer> blocked = BlockedBloom.create(new JavaObjectHash<Integer>(), n, fpp);
+        for (int i = 0; i < n; i++) {
+            classic.add(i);
+            blocked.add(i);
+        }
+
+        // several passes so the JIT has had its go at both
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                assertTrue(classic.probablyContains(i));
+            long classicPresent = System.nanoTime() - start;
+            start = System.nanoTime();
+            int classicHits = 0;
+            for (int i = n; i < 2 * n; i++)
+                if (classic.probablyContains(i)) classicHits++;
+            long classicAbsent = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                assertTrue(blocked.probablyContains(i));
+            long blockedPresent = System.nanoTime() - start;
+            start = System.nanoTime();
+            int blockedHits = 0;
+            for (int i = n; i < 2 * n; i++)
+                if (blocked.probablyContains(i)) blockedHits++;
+            long blockedAbsent = System.nanoTime() - start;
+
+            System.out.printf("classic: %d bits, fpp %.4f, %d ns/present lookup, %d ns/absent lookup\n",
+                    classic.bitSize(), (double) classicHits / n, classicPresent / n, classicAbsent / n);
+            System.out.printf("blocked: %d bits, fpp %.4f, %d ns/present lookup, %d ns/absent lookup\n",
+                    blocked.bitSize(), (double) blockedHits / n, blockedPresent / n, blockedAbsent / n);
+            assertTrue(blockedHits < 2 * fpp * n);
+        }
+    }
+
+    public void testBlockedBloomAtMaxBits() {
+        // needs 256MB; the block count rounds MAX_BITS up to exactly 2^31 bits
+        BlockedBloom<Integer> b = BlockedBloom.create(new JavaObjectHash<Integer>(), 300L * 1000 * 1000, 0.001);
+        assertEquals(1L << 31, b.bitSize());
+        b.add(1);
+        assertTrue(b.probablyContains(1));
+    }
+
+    public void testBatchVersusSingle() {
+        final int n = 4 * 1000 * 1000;
+        Bloom<Integer> b = Bloom.create(new JavaObjectHash<Integer>(), n, 0.01);
+        // boxed up front so we time the filter, not Integer.valueOf
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = i * 2;
+        b.addAll(keys);
+        Integer[] queries = new Integer[n];
+        for (int i = 0; i < n; i++)
+            queries[i] = i;
+        long[] result = new long[n / Long.SIZE];
+
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            int single = 0;
+            for (Integer q : queries)
+                if (b.probablyContains(q)) single++;
+            long singleTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int batch = b.probablyContainsAll(queries, result);
+            long batchTime = System.nanoTime() - start;
+
+            assertEquals(single, batch);
+            System.out.printf("single: %d ns/lookup, batch: %d ns/lookup\n", singleTime / n, batchTime / n);
+        }
+    }
+
+    public void testLongBloomVersusBoxed() {
+        final int n = 4 * 1000 * 1000;
+        LongBloom primitive = LongBloom.create(n, 0.01);
+        Bloom<Long> boxed = Bloom.create(new JavaObjectHash<Long>(), n, 0.01);
+        Long[] keys = new Long[n];
+        for (int i = 0; i < n; i++) {
+            primitive.add(i * 2L);
+            keys[i] = i * 2L;
+        }
+        boxed.addAll(keys);
+        keys = null;
+
+        for (int pass = 0; pass < 3; pass++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            int primitiveHits = 0;
+            for (long i = 0; i < n; i++)
+                if (primitive.probablyContains(i)) primitiveHits++;
+            long primitiveTime = System.nanoTime() - start;
+            long primitiveAllocated = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            int boxedHits = 0;
+            for (long i = 0; i < n; i++)
+                if (boxed.probablyContains(i)) boxedHits++;
+            long boxedTime = System.nanoTime() - start;
+            long boxedAllocated = allocatedBytes() - allocated;
+
+            assertTrue(primitiveHits >= n / 2);
+            assertTrue(boxedHits >= n / 2);
+            System.out.printf("LongBloom: %d ns/lookup, %d bytes allocated; Bloom<Long>: %d ns/lookup, %d bytes allocated\n",
+                    primitiveTime / n, primitiveAllocated, boxedTime / n, boxedAllocated);
+        }
+    }
+
+    public void testXorFilterVersusBloom() {
+        int n = 4 * 1000 * 1000;
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = i * 2;
+
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            XorFilter<Integer> xor = new XorFilter<Integer>(new JavaObjectHash<Integer>(), keys);
+            long xorBuild = System.nanoTime() - start;
+
+            // same false positive rate as the xor filter's 8-bit fingerprints
+            start = System.nanoTime();
+            Bloom<Integer> bloom = Bloom.create(new JavaObjectHash<Integer>(), n, 1.0 / 256);
+            bloom.addAll(keys);
+            long bloomBuild = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int xorHits = 0;
+            for (int i = 0; i < 2 * n; i++)
+                if (xor.probablyContains(i)) xorHits++;
+            long xorTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int bloomHits = 0;
+            for (int i = 0; i < 2 * n; i++)
+                if (bloom.probablyContains(i)) bloomHits++;
+            long bloomTime = System.nanoTime() - start;
+
+            System.out.printf("xor:   %.2f bits/key, fpp %.4f, built in %d msecs, %d ns/lookup\n",
+                    (double) xor.bitSize() / n, (double) (xorHits - n) / n,
+                    TimeUnit.NANOSECONDS.toMillis(xorBuild), xorTime / (2 * n));
+            System.out.printf("bloom: %.2f bits/key, fpp %.4f, built in %d msecs, %d ns/lookup\n",
+                    (double) bloom.bitSize() / n, (double) (bloomHits - n) / n,
+                    TimeUnit.NANOSECONDS.toMillis(bloomBuild), bloomTime / (2 * n));
+            assertTrue(xor.bitSize() < bloom.bitSize());
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or 0 if the JVM can't say
+     */
+    private static long allocatedBytes() {
+        Object threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    public void setUp() {
+        this.exec = Executors.newFixedThreadPool(THREADS);
+    }
+
+    public void tearDown() {
+        this.exec.shutdown();
+    }
+}
@@ -2,7 +2,11 @@ package ca.hullabaloo.data.bloom;
 
 import junit.framework.TestCase;
 
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 public class BloomTest extends TestCase {
+    private static final Charset utf8 = Charset.forName("UTF-8");
     private final Bloom<String> b = new Bloom<String>(new JavaObjectHash<String>(), 1200);
 
     public void testEmptyDoesNotContain() {
@@ -14,6 +18,151 @@ public class BloomTest extends TestCase {
         assertTrue(b.probablyContains("foo"));
     }
 
+    public void testManyProbes() {
+        Bloom<String> b = new Bloom<String>(new JavaObjectHash<String>(), 1200, 12, false);
+        b.add("foo");
+        assertTrue(b.probablyContains("foo"));
+        assertFalse(b.probablyContains("bar"));
+    }
+
+    public void testOptimalSizing() {
+        Bloom<Integer> b = Bloom.create(new JavaObjectHash<Integer>(), 1000 * 1000, 0.01);
+        assertEquals(7, b.probes());
+        // 9.585 bits per element, rounded up to a word
+        assertEquals(9585088, b.bitSize());
+    }
+
+    public void testFalsePositiveRateNearTarget() {
+        int n = 20 * 1000;
+        Bloom<Integer> b = Bloom.create(new JavaObjectHash<Integer>(), n, 0.01);
+        for (int i = 0; i < n; i++)
+            b.add(i);
+        for (int i = 0; i < n; i++)
+            assertTrue(b.probablyContains(i));
+        int falsePositives = 0;
+        for (int i = n; i < 11 * n; i++)
+            if (b.probablyContains(i)) falsePositives++;
+        double fpp = falsePositives / (10.0 * n);
+        assertTrue("fpp=" + fpp, fpp < 0.02);
+    }
+
+    public void testBatch() {
+        Bloom<Integer> b = Bloom.create(new JavaObjectHash<Integer>(), 1000, 0.01);
+        Integer[] keys = new Integer[130];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i * 2;
+        b.addAll(keys);
+
+        Integer[] queries = new Integer[260];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = i;
+        long[] result = new long[5];
+        int found = b.probablyContainsAll(queries, result);
+        assertTrue(found >= keys.length);
+        for (int i = 0; i < queries.length; i++) {
+            boolean bit = (result[i >>> 6] & (1L << i)) != 0;
+            assertEquals(b.probablyContains(i), bit);
+        }
+    }
+
+    public void testAddAllIterable() {
+        Bloom<Integer> b = Bloom.create(new JavaObjectHash<Integer>(), 1000, 0.01);
+        b.addAll(Arrays.asList(1, 2, 3));
+        assertTrue(b.probablyContains(1));
+        assertTrue(b.probablyContains(2));
+        assertTrue(b.probablyContains(3));
+    }
+
+    public void testBloomOverSlices() {
+        Bloom<byte[]> b = Bloom.create(Murmur3Hash.bytes(), 1000, 0.01);
+        byte[] data = "xxhelloxx".getBytes(utf8);
+        b.add(data, 2, 5);
+        assertTrue(b.probablyContains("hello".getBytes(utf8)));
+        assertTrue(b.probablyContains(data, 2, 5));
+        assertFalse(b.probablyContains(data, 2, 4));
+    }
+
+    public void testSlicesNeedSliceHash() {
+        Bloom<String> b = Bloom.create(new JavaObjectHash<String>(), 1000, 0.01);
+        try {
+            b.add(new byte[1], 0, 1);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testUnion() {
+        Bloom<String> other = new Bloom<String>(new JavaObjectHash<String>(), 1200);
+        b.add("foo");
+        other.add("bar");
+        b.union(other);
+        assertTrue(b.probablyContains("foo"));
+        assertTrue(b.probablyContains("bar"));
+        assertFalse(other.probablyContains("foo"));
+    }
+
+    public void testIntersect() {
+        Bloom<String> other = new Bloom<String>(new JavaObjectHash<String>(), 1200);
+        b.add("foo");
+        b.add("baz");
+        other.add("bar");
+        other.add("baz");
+        b.intersect(other);
+        assertFalse(b.probablyContains("foo"));
+        assertFalse(b.probablyContains("bar"));
+        assertTrue(b.probablyContains("baz"));
+    }
+
+    public void testUnionOfIncompatibleFilters() {
+        Bloom<String> bigger = new Bloom<String>(new JavaObjectHash<String>(), 4000);
+        assertFalse(b.isCompatible(bigger));
+        try {
+            b.union(bigger);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testStats() {
+        Bloom<Integer> b = Bloom.create(new JavaObjectHash<Integer>(), 10000, 0.01);
+        assertEquals(0, b.bitCount());
+        assertEquals(0.0, b.expectedFpp(), 0);
+        for (int i = 0; i < 5000; i++)
+            b.add(i);
+        b.add(1);
+        b.probablyContains(1);
+        b.probablyContainsAll(new Integer[]{1, 2, 3}, new long[1]);
+
+        assertEquals(5001, b.addCount());
+        assertEquals(4, b.queryCount());
+        assertTrue(b.bitCount() > 4000 * b.probes());
+        assertEquals(5000, b.approximateElementCount(), 100);
+        // half full, so well under the 1% it was sized for
+        assertTrue(b.expectedFpp() < 0.001);
+        for (int i = 5000; i < 20000; i++)
+            b.add(i);
+        assertTrue(b.expectedFpp() > 0.01);
+    }
+
+    public void testStatsOverThreads() throws InterruptedException {
+        final Bloom<Integer> b = Bloom.create(new JavaObjectHash<Integer>(), 10000, 0.01, true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 1000; i++)
+                        b.add(i);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(4000, b.addCount());
+    }
+
     public void testFoo() {
         int v = new Object().hashCode();
         int l = 2048 - 1;
@@ -0,0 +1,152 @@
+package ca.hullabaloo.data.bloom;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate per-element counts in fixed space (Cormode &amp; Muthukrishnan).  Each of
+ * {@code depth} rows holds {@code width} counters; an element adds to one counter per
+ * row and its estimate is the smallest of them, so estimates never undercount and
+ * overcount by at most {@code e / width} of the total with probability
+ * {@code 1 - exp(-depth)}.
+ * <p/>
+ * Row positions come from the same double hashing as {@link Bloom}.  Counters are
+ * updated with atomic adds, so any number of threads may call {@link #add} at once.
+ * With conservative update a counter is only raised as far as the new estimate
+ * needs, which cuts overcounting by a good deal at the cost of a CAS loop per row.
+ * Two threads adding the same element would both raise from the same minimum and
+ * lose a count, so conservative adds lock one of a set of stripes chosen by hash;
+ * different elements rarely share one.
+ */
+public class CountMinSketch<E> {
+    private static final int STRIPES = 64;
+    private final Hash<E> hash;
+    private final ThreadLocal<HashIter> bufs;
+    private final AtomicLongArray counters;
+    private final int width;
+    private final int depth;
+    private final boolean conservative;
+    /**
+     * striped, so that threads adding at once don't all write one line
+     */
+    private final StripedCounter total = new StripedCounter();
+    private final Object[] stripes;
+
+    /**
+     * @param width        counters per row; error is about {@code 2.72 / width} of the total
+     * @param depth        rows; the error bound fails with probability {@code exp(-depth)}
+     * @param conservative only raise counters as far as needed; see the class comment
+     */
+    public CountMinSketch(Hash<E> hash, int width, int depth, boolean conservative) {
+        if (width <= 0)
+            throw new IllegalArgumentException("width must be > 0:" + width);
+        if (depth <= 0 || (long) width * depth > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("bad depth:" + depth);
+        this.hash = hash;
+        this.bufs = new Hashes(hash, width, depth);
+        this.counters = new AtomicLongArray(width * depth);
+        this.width = width;
+        this.depth = depth;
+        this.conservative = conservative;
+        this.stripes = new Object[conservative ? STRIPES : 0];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Object();
+    }
+
+    /**
+     * A sketch whose estimates are within {@code epsilon} of the total count
+     * with probability {@code 1 - delta}
+     */
+    public static <E> CountMinSketch<E> create(Hash<E> hash, double epsilon, double delta, boolean conservative) {
+        if (epsilon <= 0 || epsilon >= 1)
+            throw new IllegalArgumentException("epsilon must be in (0,1):" + epsilon);
+        if (delta <= 0 || delta >= 1)
+            throw new IllegalArgumentException("delta must be in (0,1):" + delta);
+        int width = (int) Math.ceil(Math.E / epsilon);
+        int depth = (int) Math.ceil(Math.log(1 / delta));
+        return new CountMinSketch<E>(hash, width, depth, conservative);
+    }
+
+    /**
+     * @return the element's estimated count, including this addition
+     */
+    public long add(E o, long count) {
+        if (count < 0)
+            throw new IllegalArgumentException("count must be >= 0:" + count);
+        HashIter h = bufs.get();
+        h.reset(o);
+        total.add(h.stripe, count);
+        long estimate = Long.MAX_VALUE;
+        if (conservative) {
+            synchronized (stripes[(int) (h.h2() >>> 58)]) {
+                estimate = min(h) + count;
+                h.rewind();
+                for (int row = 0; h.hasNext(); row++) {
+                    int idx = row * width + h.next();
+                    long c;
+                    // other elements may be raising the same counter
+                    while ((c = counters.get(idx)) < estimate && !counters.compareAndSet(idx, c, estimate))
+                        ;
+                }
+            }
+        } else {
+            for (int row = 0; h.hasNext(); row++)
+                estimate = Math.min(estimate, counters.addAndGet(row * width + h.next(), count));
+        }
+        return estimate;
+    }
+
+    public long add(E o) {
+        return add(o, 1);
+    }
+
+    /**
+     * The element's estimated count; never less than the true count
+     */
+    public long estimate(E o) {
+        HashIter h = bufs.get();
+        h.reset(o);
+        return min(h);
+    }
+
+    private long min(HashIter h) {
+        long result = Long.MAX_VALUE;
+        for (int row = 0; h.hasNext(); row++)
+            result = Math.min(result, counters.get(row * width + h.next()));
+        return result;
+    }
+
+    /**
+     * Sum of all counts added
+     */
+    public long totalCount() {
+        return total.sum();
+    }
+
+    /**
+     * Adds another sketch's counts to this one.  Not atomic with respect to
+     * concurrent adds on {@code other}.
+     *
+     * @throws IllegalArgumentException unless the sketches have the same shape and hash
+     */
+    public void merge(CountMinSketch<E> other) {
+        if (!isCompatible(other))
+            throw new IllegalArgumentException("sketches differ in shape or hash");
+        for (int i = 0; i < counters.length(); i++) {
+            long c = other.counters.get(i);
+            if (c != 0) counters.addAndGet(i, c);
+        }
+        total.add(bufs.get().stripe, other.total.sum());
+    }
+
+    public boolean isCompatible(CountMinSketch<?> other) {
+        return width == other.width && depth == other.depth && hash.getClass() == other.hash.getClass();
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+}
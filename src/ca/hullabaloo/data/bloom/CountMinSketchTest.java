@@ -0,0 +1,86 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class CountMinSketchTest extends TestCase {
+    public void testExactForFewKeys() {
+        CountMinSketch<String> s = new CountMinSketch<String>(new JavaObjectHash<String>(), 1024, 4, false);
+        assertEquals(0, s.estimate("foo"));
+        s.add("foo");
+        s.add("foo", 4);
+        assertEquals(6, s.add("foo"));
+        assertEquals(6, s.estimate("foo"));
+        assertEquals(0, s.estimate("bar"));
+        assertEquals(6, s.totalCount());
+    }
+
+    public void testNeverUndercountsAndErrorIsBounded() {
+        checkError(false);
+    }
+
+    public void testConservativeUpdateOvercountsLess() {
+        double plain = checkError(false);
+        double conservative = checkError(true);
+        assertTrue(conservative + " < " + plain, conservative < plain);
+    }
+
+    private double checkError(boolean conservative) {
+        CountMinSketch<Integer> s = CountMinSketch.create(new JavaObjectHash<Integer>(), 0.001, 0.01, conservative);
+        int keys = 10 * 1000;
+        int[] actual = new int[keys];
+        Random r = new Random(12);
+        for (int i = 0; i < 500 * 1000; i++) {
+            // skewed: small keys are hot
+            int key = (int) (keys * Math.pow(r.nextDouble(), 3));
+            actual[key]++;
+            s.add(key);
+        }
+        long totalError = 0;
+        for (int i = 0; i < keys; i++) {
+            long error = s.estimate(i) - actual[i];
+            assertTrue(error >= 0);
+            assertTrue(error <= 0.001 * s.totalCount());
+            totalError += error;
+        }
+        return (double) totalError / keys;
+    }
+
+    public void testConcurrentAdds() throws InterruptedException {
+        final CountMinSketch<Integer> s = new CountMinSketch<Integer>(new JavaObjectHash<Integer>(), 4096, 4, true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10 * 1000; i++)
+                        s.add(i % 100);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(40 * 1000, s.totalCount());
+        for (int i = 0; i < 100; i++)
+            assertTrue(s.estimate(i) >= 400);
+    }
+
+    public void testMerge() {
+        Hash<String> hash = new JavaObjectHash<String>();
+        CountMinSketch<String> a = new CountMinSketch<String>(hash, 64, 3, false);
+        CountMinSketch<String> b = new CountMinSketch<String>(hash, 64, 3, false);
+        a.add("foo", 3);
+        b.add("foo", 4);
+        b.add("bar");
+        a.merge(b);
+        assertEquals(7, a.estimate("foo"));
+        assertEquals(1, a.estimate("bar"));
+        assertEquals(8, a.totalCount());
+        try {
+            a.merge(new CountMinSketch<String>(hash, 32, 3, false));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * A bloom filter that supports {@link #remove}, by keeping a small counter per
+ * position instead of a bit.  Counters are 4 bits, packed 16 to a long, and
+ * saturate at 15; a saturated counter is never decremented again since its true
+ * count is lost.  {@link #saturatedCounters()} and {@link #overflows()} say how
+ * often that has happened.
+ * <p/>
+ * Not safe for concurrent writers.
+ */
+public class CountingBloom<E> {
+    private static final int MAX = 15;
+
+    private final long[] data;
+    private final int size;
+    private final int probes;
+    private final ThreadLocal<HashIter> bufs;
+    private int saturatedCounters;
+    private long overflows;
+
+    /**
+     * @param counters number of 4-bit counters
+     * @param probes   number of counters touched per element (k)
+     */
+    public CountingBloom(Hash<E> hash, int counters, int probes) {
+        Bloom.checkBits(counters);
+        this.data = new long[(counters + 15) >>> 4];
+        this.size = data.length << 4;
+        this.probes = probes;
+        this.bufs = new Hashes(hash, size, probes);
+    }
+
+    /**
+     * A filter sized to hold {@code expectedInsertions} elements with a false
+     * positive rate of {@code fpp}; takes four times the memory of the same {@link Bloom}
+     */
+    public static <E> CountingBloom<E> create(Hash<E> hash, long expectedInsertions, double fpp) {
+        int counters = Bloom.optimalBits(expectedInsertions, fpp);
+        return new CountingBloom<E>(hash, counters, Bloom.optimalProbes(expectedInsertions, counters));
+    }
+
+    public void add(E o) {
+        HashIter hashes = bufs.get();
+        hashes.reset(o);
+        while (hashes.hasNext()) {
+            int idx = hashes.next();
+            int w = idx >>> 4, shift = (idx & 15) << 2;
+            int c = (int) (data[w] >>> shift) & MAX;
+            if (c == MAX) {
+                overflows++;
+            } else {
+                data[w] += 1L << shift;
+                if (c + 1 == MAX) saturatedCounters++;
+            }
+        }
+    }
+
+    /**
+     * Removes an element that was previously added.  Removing something that was
+     * never added (but is a false positive) will cause false negatives later.
+     *
+     * @return false if the element was definitely not present
+     */
+    public boolean remove(E o) {
+        HashIter hashes = bufs.get();
+        hashes.reset(o);
+        while (hashes.hasNext()) {
+            if (counter(hashes.next()) == 0) return false;
+        }
+        hashes.rewind();
+        while (hashes.hasNext()) {
+            int idx = hashes.next();
+            int w = idx >>> 4, shift = (idx & 15) << 2;
+            int c = (int) (data[w] >>> shift) & MAX;
+            // zero only if this probe repeats an earlier one of the same element
+            if (c != MAX && c != 0)
+                data[w] -= 1L << shift;
+        }
+        return true;
+    }
+
+    public boolean probablyContains(E o) {
+        HashIter hashes = bufs.get();
+        hashes.reset(o);
+        while (hashes.hasNext()) {
+            if (counter(hashes.next()) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Number of counters stuck at their maximum
+     */
+    public int saturatedCounters() {
+        return saturatedCounters;
+    }
+
+    /**
+     * Number of increments lost to saturated counters
+     */
+    public long overflows() {
+        return overflows;
+    }
+
+    /**
+     * Number of counters
+     */
+    public int size() {
+        return size;
+    }
+
+    public int probes() {
+        return probes;
+    }
+
+    private int counter(int idx) {
+        return (int) (data[idx >>> 4] >>> ((idx & 15) << 2)) & MAX;
+    }
+}
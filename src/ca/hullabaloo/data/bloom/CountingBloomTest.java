@@ -0,0 +1,63 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+public class CountingBloomTest extends TestCase {
+    private final CountingBloom<String> b = new CountingBloom<String>(new JavaObjectHash<String>(), 1200, 4);
+
+    public void testEmptyDoesNotContain() {
+        assertFalse(b.probablyContains("x"));
+    }
+
+    public void testAdd() {
+        b.add("foo");
+        assertTrue(b.probablyContains("foo"));
+    }
+
+    public void testRemove() {
+        b.add("foo");
+        b.add("bar");
+        assertTrue(b.remove("foo"));
+        assertFalse(b.probablyContains("foo"));
+        assertTrue(b.probablyContains("bar"));
+    }
+
+    public void testAddedTwiceNeedsTwoRemoves() {
+        b.add("foo");
+        b.add("foo");
+        assertTrue(b.remove("foo"));
+        assertTrue(b.probablyContains("foo"));
+        assertTrue(b.remove("foo"));
+        assertFalse(b.probablyContains("foo"));
+    }
+
+    public void testRemoveAbsent() {
+        b.add("foo");
+        assertFalse(b.remove("bar"));
+        assertTrue(b.probablyContains("foo"));
+    }
+
+    public void testSaturation() {
+        for (int i = 0; i < 20; i++)
+            b.add("foo");
+        assertTrue(b.saturatedCounters() > 0);
+        assertTrue(b.saturatedCounters() <= b.probes());
+        assertEquals(5 * b.probes(), b.overflows());
+        // saturated counters have forgotten their count, so stay set
+        for (int i = 0; i < 20; i++)
+            b.remove("foo");
+        assertTrue(b.probablyContains("foo"));
+    }
+
+    public void testChurn() {
+        CountingBloom<Integer> b = CountingBloom.create(new JavaObjectHash<Integer>(), 1000, 0.01);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i++)
+                b.add(round * 1000 + i);
+            for (int i = 0; i < 1000; i++)
+                assertTrue(b.remove(round * 1000 + i));
+        }
+        for (int i = 0; i < 10000; i++)
+            assertFalse(b.probablyContains(i));
+    }
+}
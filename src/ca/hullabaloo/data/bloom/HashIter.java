@@ -0,0 +1,111 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * Generates the k bit positions for an element by double hashing,
+ * {@code g(i) = h1 + i * h2}, so any number of probes can be drawn from a
+ * single hash result (Kirsch &amp; Mitzenmacher, "Less Hashing, Same Performance").
+ * <p/>
+ * Not thread safe; see {@link Hashes}.
+ */
+class HashIter {
+    private static final long HIGH_INT = 0xffffffff00000000L;
+
+    private final Hash hash;
+    private final int valuesPerIter;
+    private final long size;
+    private final long[] buf;
+    private long h1;
+    private long h2;
+    private int returnedValues = 0;
+    private int[] scratch = {};
+    /**
+     * where the owning thread counts, in {@link Hashes}' {@link StripedCounter}s
+     */
+    final int stripe = StripedCounter.stripe();
+
+    public HashIter(Hash hash, int valuesPerIter, int size) {
+        this.hash = hash;
+        this.valuesPerIter = valuesPerIter;
+        this.size = size;
+        this.buf = new long[hash.longSize()];
+    }
+
+    // We're careful to only send E
+    @SuppressWarnings({"unchecked"})
+    public void reset(Object o) {
+        this.hash.hash(o, buf);
+        split();
+    }
+
+    /**
+     * @throws UnsupportedOperationException unless the hash is a {@link SliceHash}
+     */
+    public void reset(byte[] data, int offset, int length) {
+        if (!(hash instanceof SliceHash))
+            throw new UnsupportedOperationException(hash.getClass().getName() + " can't hash byte ranges");
+        ((SliceHash) this.hash).hash(data, offset, length, buf);
+        split();
+    }
+
+    private void split() {
+        this.returnedValues = 0;
+        if (buf.length == 1) {
+            // two 32 bit hashes, kept in the high half so the sums below wrap at 32 bits.
+            // Mixed first: next() reads the top bits, and a hashCode's entropy is in the bottom ones
+            long x = mix(buf[0]);
+            this.h1 = x << 32;
+            this.h2 = x & HIGH_INT;
+        } else {
+            this.h1 = buf[0];
+            this.h2 = buf[1];
+        }
+    }
+
+    /**
+     * Start the same element's probes over, without hashing it again
+     */
+    public void rewind() {
+        this.returnedValues = 0;
+    }
+
+    /**
+     * The two hash halves from the last {@link #reset}, for filters that
+     * place probes themselves
+     */
+    long h1() {
+        return h1;
+    }
+
+    long h2() {
+        return h2;
+    }
+
+    /**
+     * A per-thread buffer for batch operations, at least {@code size} long
+     */
+    int[] scratch(int size) {
+        if (scratch.length < size)
+            scratch = new int[size];
+        return scratch;
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    public boolean hasNext() {
+        return this.returnedValues < this.valuesPerIter;
+    }
+
+    public int next() {
+        // start at i=1 so every probe gets some of h2's mixing
+        long combined = h1 + ++this.returnedValues * h2;
+        // maps the top 32 bits onto [0,size) without a division
+        return (int) (((combined >>> 32) * size) >>> 32);
+    }
+}
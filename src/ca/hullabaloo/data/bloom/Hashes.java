@@ -0,0 +1,52 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * Per-thread probe generators for one filter configuration
+ */
+class Hashes extends ThreadLocal<HashIter> {
+    private final Hash hash;
+    private final int size;
+    private final int probes;
+    private final StripedCounter adds = new StripedCounter();
+    private final StripedCounter queries = new StripedCounter();
+
+    public Hashes(Hash hash, int size, int probes) {
+        if (probes <= 0)
+            throw new IllegalArgumentException("probes must be > 0:" + probes);
+        if (hash.longSize() <= 0)
+            throw new IllegalArgumentException("too few bits returned by hash function");
+        this.hash = hash;
+        this.size = size;
+        this.probes = probes;
+    }
+
+    @Override
+    protected HashIter initialValue() {
+        return new HashIter(this.hash, this.probes, this.size);
+    }
+
+    /**
+     * Counts {@code n} elements added by the thread owning {@code h}
+     */
+    void added(HashIter h, long n) {
+        adds.add(h.stripe, n);
+    }
+
+    void queried(HashIter h, long n) {
+        queries.add(h.stripe, n);
+    }
+
+    /**
+     * Elements added, over all threads
+     */
+    long adds() {
+        return adds.sum();
+    }
+
+    /**
+     * Elements looked up, over all threads
+     */
+    long queries() {
+        return queries.sum();
+    }
+}
@@ -0,0 +1,124 @@
+package ca.hullabaloo.data.bloom;
+
+import ca.hullabaloo.data.tree.IntHeap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the {@code k} most frequent elements of a stream, using a {@link CountMinSketch}
+ * for the counts and a min-heap of the current candidates.
+ * <p/>
+ * Safe for concurrent {@link #add}s.  The sketch update is lock free; the candidate
+ * list is only locked when an element's estimate reaches the smallest candidate's,
+ * which for a skewed stream is rare once the heap has filled.
+ */
+public class HeavyHitters<E> {
+    private final CountMinSketch<E> sketch;
+    private final int k;
+    // slot-indexed candidates; the heap holds slots ordered by count
+    private final Object[] keys;
+    private final long[] counts;
+    private final int[] heapIndex;
+    private final Map<E, Integer> slots = new HashMap<E, Integer>();
+    private final IntHeap heap = new IntHeap() {
+        @Override
+        protected boolean less(int a, int b) {
+            return counts[a] < counts[b];
+        }
+
+        @Override
+        protected void placed(int slot, int idx) {
+            heapIndex[slot] = idx;
+        }
+    };
+    /**
+     * the smallest candidate count once the heap is full; adds below it skip the lock
+     */
+    private volatile long threshold;
+
+    public HeavyHitters(CountMinSketch<E> sketch, int k) {
+        if (k <= 0)
+            throw new IllegalArgumentException("k must be > 0:" + k);
+        this.sketch = sketch;
+        this.k = k;
+        this.keys = new Object[k];
+        this.counts = new long[k];
+        this.heapIndex = new int[k];
+    }
+
+    public void add(E o) {
+        add(o, 1);
+    }
+
+    public void add(E o, long count) {
+        long estimate = sketch.add(o, count);
+        if (estimate >= threshold)
+            offer(o, estimate);
+    }
+
+    private synchronized void offer(E o, long estimate) {
+        Integer slot = slots.get(o);
+        if (slot != null) {
+            if (estimate > counts[slot]) {
+                counts[slot] = estimate;
+                heap.reorder(heapIndex[slot]);
+            }
+        } else if (heap.size() < k) {
+            int s = heap.size();
+            keys[s] = o;
+            counts[s] = estimate;
+            slots.put(o, s);
+            heap.add(s);
+        } else if (estimate > counts[heap.first()]) {
+            int s = heap.first();
+            slots.remove(keys[s]);
+            keys[s] = o;
+            counts[s] = estimate;
+            slots.put(o, s);
+            heap.reorder(0);
+        } else {
+            return;
+        }
+        if (heap.size() == k)
+            threshold = counts[heap.first()];
+    }
+
+    /**
+     * The current candidates and their estimated counts, most frequent first
+     */
+    @SuppressWarnings({"unchecked"})
+    public synchronized Map<E, Long> top() {
+        Integer[] order = new Integer[heap.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+        Map<E, Long> result = new LinkedHashMap<E, Long>();
+        for (int s : order)
+            result.put((E) keys[s], counts[s]);
+        return result;
+    }
+
+    /**
+     * Folds another tracker's sketch into this one and reconsiders both sets of
+     * candidates against the combined counts
+     */
+    public void merge(HeavyHitters<E> other) {
+        sketch.merge(other.sketch);
+        Map<E, Long> candidates = new HashMap<E, Long>(other.top());
+        candidates.putAll(top());
+        for (E o : candidates.keySet())
+            offer(o, sketch.estimate(o));
+    }
+
+    public CountMinSketch<E> sketch() {
+        return sketch;
+    }
+}
@@ -0,0 +1,58 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+public class HeavyHittersTest extends TestCase {
+    private HeavyHitters<Integer> create(int k) {
+        return new HeavyHitters<Integer>(
+                new CountMinSketch<Integer>(new JavaObjectHash<Integer>(), 2048, 4, true), k);
+    }
+
+    public void testOrderedByCount() {
+        HeavyHitters<Integer> h = create(3);
+        for (int i = 1; i <= 5; i++)
+            h.add(i, i * 10);
+        Map<Integer, Long> top = h.top();
+        assertEquals(Arrays.asList(5, 4, 3), new ArrayList<Integer>(top.keySet()));
+        assertEquals(50L, (long) top.get(5));
+    }
+
+    public void testFindsHotKeysInSkewedStream() {
+        HeavyHitters<Integer> h = create(10);
+        Random r = new Random(7);
+        for (int i = 0; i < 200 * 1000; i++) {
+            // keys 0..9 take half the stream, the rest is spread over 100K keys
+            h.add(r.nextBoolean() ? r.nextInt(10) : 10 + r.nextInt(100 * 1000));
+        }
+        assertEquals(10, h.top().size());
+        for (int key : h.top().keySet())
+            assertTrue(key + " isn't hot", key < 10);
+    }
+
+    public void testCountsThatRiseAreReordered() {
+        HeavyHitters<Integer> h = create(2);
+        h.add(1, 5);
+        h.add(2, 3);
+        h.add(2, 4);
+        assertEquals(Arrays.asList(2, 1), new ArrayList<Integer>(h.top().keySet()));
+        h.add(3, 1);
+        assertEquals(Arrays.asList(2, 1), new ArrayList<Integer>(h.top().keySet()));
+    }
+
+    public void testMerge() {
+        HeavyHitters<Integer> a = create(2);
+        HeavyHitters<Integer> b = create(2);
+        a.add(1, 10);
+        a.add(2, 8);
+        b.add(3, 9);
+        b.add(2, 5);
+        a.merge(b);
+        assertEquals(Arrays.asList(2, 1), new ArrayList<Integer>(a.top().keySet()));
+        assertEquals(13L, (long) a.top().get(2));
+    }
+}
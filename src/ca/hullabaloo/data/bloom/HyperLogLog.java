@@ -0,0 +1,293 @@
+package ca.hullabaloo.data.bloom;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct elements in a stream in a few KB, to within
+ * about {@code 1.04 / sqrt(2^precision)}.
+ * <p/>
+ * Starts in a sparse mode that stores only the registers in use, in an open
+ * addressed int set; once that would be as big as the full register array it
+ * switches to one byte per register.  Cardinality uses Ertl's improved estimator
+ * ("New cardinality estimation algorithms for HyperLogLog sketches"), which is
+ * accurate from zero up without the empirical bias tables HLL++ needs.
+ * <p/>
+ * {@link #offer} allocates nothing, except when the sparse set grows or the sketch
+ * goes dense.  Not thread safe; give each thread its own sketch and {@link #merge} them.
+ */
+public class HyperLogLog<E> {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    private static final int RANK_BITS = 6;
+    private static final int RANK_MASK = (1 << RANK_BITS) - 1;
+    private static final byte FORMAT_SPARSE = 1;
+    private static final byte FORMAT_DENSE = 2;
+
+    private final ThreadLocal<HashIter> bufs;
+    private final int precision;
+    private final int m;
+
+    /**
+     * open addressed set of (index &lt;&lt; 6 | rank), 0 meaning empty; null once dense
+     */
+    private int[] sparse = new int[16];
+    private int sparseSize;
+    private byte[] registers;
+
+    /**
+     * @param precision log2 of the number of registers, between 4 and 18; 14 gives 16K
+     *                  registers and about 0.8% error
+     */
+    public HyperLogLog(Hash<E> hash, int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("precision out of range:" + precision);
+        this.bufs = new Hashes(hash, 1, 1);
+        this.precision = precision;
+        this.m = 1 << precision;
+    }
+
+    /**
+     * @return true if the sketch changed
+     */
+    public boolean offer(E o) {
+        HashIter h = bufs.get();
+        h.reset(o);
+        long x = h.h1() ^ Long.rotateLeft(h.h2(), 32);
+        int index = (int) (x >>> (Long.SIZE - precision));
+        // leading zeros of the remaining bits, plus one; at most 65 - precision
+        int rank = Long.numberOfLeadingZeros((x << precision) | (1L << (precision - 1))) + 1;
+        return update(index, rank);
+    }
+
+    /**
+     * Estimated number of distinct elements offered
+     */
+    public long cardinality() {
+        int q = Long.SIZE - precision;
+        int[] c = new int[q + 2];
+        if (registers != null) {
+            for (byte r : registers)
+                c[r]++;
+        } else {
+            c[0] = m - sparseSize;
+            for (int e : sparse)
+                if (e != 0) c[e & RANK_MASK]++;
+        }
+        double z = m * tau(1 - (double) c[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z += c[k];
+            z *= 0.5;
+        }
+        z += m * sigma((double) c[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    /**
+     * Folds another sketch into this one, as if its elements had been offered here
+     *
+     * @throws IllegalArgumentException if the precisions differ
+     */
+    public void merge(HyperLogLog<E> other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("precision " + other.precision + " != " + precision);
+        if (other.registers != null) {
+            if (registers == null) toDense();
+            for (int i = 0; i < m; i++)
+                if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        } else {
+            for (int e : other.sparse)
+                if (e != 0) update(e >>> RANK_BITS, e & RANK_MASK);
+        }
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    /**
+     * True while the sketch is still in its sparse representation
+     */
+    public boolean isSparse() {
+        return registers == null;
+    }
+
+    /**
+     * A compact encoding of the sketch: sparse entries are sorted and delta-encoded
+     * as varints, dense registers are packed into 6 bits each
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(registers == null ? FORMAT_SPARSE : FORMAT_DENSE);
+        out.write(precision);
+        if (registers == null) {
+            int[] entries = new int[sparseSize];
+            int n = 0;
+            for (int e : sparse)
+                if (e != 0) entries[n++] = e;
+            Arrays.sort(entries);
+            writeVarint(out, n);
+            int prev = 0;
+            for (int e : entries) {
+                writeVarint(out, e - prev);
+                prev = e;
+            }
+        } else {
+            int acc = 0, bits = 0;
+            for (byte r : registers) {
+                acc |= r << bits;
+                bits += RANK_BITS;
+                while (bits >= Byte.SIZE) {
+                    out.write(acc);
+                    acc >>>= Byte.SIZE;
+                    bits -= Byte.SIZE;
+                }
+            }
+            if (bits > 0) out.write(acc);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a sketch written by {@link #toBytes}; the hash must be the one it was built with
+     */
+    public static <E> HyperLogLog<E> fromBytes(Hash<E> hash, byte[] data) {
+        if (data.length < 2 || data[1] < MIN_PRECISION || data[1] > MAX_PRECISION)
+            throw new IllegalArgumentException("not a HyperLogLog");
+        HyperLogLog<E> result = new HyperLogLog<E>(hash, data[1]);
+        int maxRank = Long.SIZE + 1 - result.precision;
+        int[] pos = {2};
+        if (data[0] == FORMAT_SPARSE) {
+            int n = readVarint(data, pos);
+            if (n < 0 || n > result.m)
+                throw new IllegalArgumentException("not a HyperLogLog");
+            int e = 0;
+            for (int i = 0; i < n; i++) {
+                int delta = readVarint(data, pos);
+                // entries are strictly increasing, so a delta is never 0
+                if (delta <= 0 || e > Integer.MAX_VALUE - delta)
+                    throw new IllegalArgumentException("not a HyperLogLog");
+                e += delta;
+                int index = e >>> RANK_BITS, rank = e & RANK_MASK;
+                if (index >= result.m || rank == 0 || rank > maxRank)
+                    throw new IllegalArgumentException("not a HyperLogLog");
+                result.update(index, rank);
+            }
+            if (pos[0] != data.length)
+                throw new IllegalArgumentException("not a HyperLogLog");
+        } else if (data[0] == FORMAT_DENSE) {
+            if (data.length != 2 + (result.m * RANK_BITS + Byte.SIZE - 1) / Byte.SIZE)
+                throw new IllegalArgumentException("not a HyperLogLog");
+            result.toDense();
+            int acc = 0, bits = 0, p = 2;
+            for (int i = 0; i < result.m; i++) {
+                while (bits < RANK_BITS) {
+                    acc |= (data[p++] & 0xff) << bits;
+                    bits += Byte.SIZE;
+                }
+                int rank = acc & RANK_MASK;
+                if (rank > maxRank)
+                    throw new IllegalArgumentException("not a HyperLogLog");
+                result.registers[i] = (byte) rank;
+                acc >>>= RANK_BITS;
+                bits -= RANK_BITS;
+            }
+        } else {
+            throw new IllegalArgumentException("not a HyperLogLog");
+        }
+        return result;
+    }
+
+    private boolean update(int index, int rank) {
+        if (registers != null) {
+            if (registers[index] >= rank) return false;
+            registers[index] = (byte) rank;
+            return true;
+        }
+        int mask = sparse.length - 1;
+        for (int i = mix(index) & mask; ; i = (i + 1) & mask) {
+            int e = sparse[i];
+            if (e == 0) {
+                sparse[i] = index << RANK_BITS | rank;
+                if (++sparseSize > m / 8) toDense();
+                else if (sparseSize > sparse.length / 2) growSparse();
+                return true;
+            }
+            if (e >>> RANK_BITS == index) {
+                if ((e & RANK_MASK) >= rank) return false;
+                sparse[i] = index << RANK_BITS | rank;
+                return true;
+            }
+        }
+    }
+
+    private void growSparse() {
+        int[] old = sparse;
+        sparse = new int[old.length * 2];
+        int mask = sparse.length - 1;
+        for (int e : old) {
+            if (e == 0) continue;
+            int i = mix(e >>> RANK_BITS) & mask;
+            while (sparse[i] != 0) i = (i + 1) & mask;
+            sparse[i] = e;
+        }
+    }
+
+    private void toDense() {
+        registers = new byte[m];
+        for (int e : sparse)
+            if (e != 0) registers[e >>> RANK_BITS] = (byte) (e & RANK_MASK);
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    /**
+     * indexes are the top bits of a hash, so consecutive slots are clustered; spread them
+     */
+    private static int mix(int index) {
+        return index * 0x9E3779B9;
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) return Double.POSITIVE_INFINITY;
+        double y = 1, z = x, prev;
+        do {
+            x *= x;
+            prev = z;
+            z += x * y;
+            y += y;
+        } while (z != prev);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) return 0;
+        double y = 1, z = 1 - x, prev;
+        do {
+            x = Math.sqrt(x);
+            prev = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != prev);
+        return z / 3;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (pos[0] >= data.length || shift >= Integer.SIZE)
+                throw new IllegalArgumentException("not a HyperLogLog");
+            byte b = data[pos[0]++];
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) return result;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+public class HyperLogLogTest extends TestCase {
+    public void testEmpty() {
+        HyperLogLog<String> h = new HyperLogLog<String>(new JavaObjectHash<String>(), 10);
+        assertEquals(0, h.cardinality());
+        assertTrue(h.isSparse());
+    }
+
+    public void testDuplicatesDoNotCount() {
+        HyperLogLog<String> h = new HyperLogLog<String>(new JavaObjectHash<String>(), 10);
+        assertTrue(h.offer("foo"));
+        assertFalse(h.offer("foo"));
+        h.offer("bar");
+        assertEquals(2, h.cardinality());
+    }
+
+    public void testAccuracyAcrossRange() {
+        HyperLogLog<Integer> h = new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 14);
+        int n = 0;
+        for (int target : new int[]{100, 1000, 10 * 1000, 100 * 1000, 1000 * 1000}) {
+            while (n < target) h.offer(n++);
+            // ~0.8% standard error, allow 4 sigma
+            assertEquals(n, h.cardinality(), n * 0.033);
+        }
+        assertFalse(h.isSparse());
+    }
+
+    public void testSmallCardinalitiesAreNearExactWhileSparse() {
+        HyperLogLog<Integer> h = new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 14);
+        for (int i = 0; i < 1000; i++)
+            h.offer(i);
+        assertTrue(h.isSparse());
+        assertEquals(1000, h.cardinality(), 10);
+    }
+
+    public void testMerge() {
+        HyperLogLog<Integer> a = new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 12);
+        HyperLogLog<Integer> b = new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 12);
+        HyperLogLog<Integer> both = new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 12);
+        for (int i = 0; i < 50 * 1000; i++) {
+            (i % 3 == 0 ? a : b).offer(i);
+            both.offer(i);
+        }
+        HyperLogLog<Integer> sparse = new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 12);
+        sparse.offer(-1);
+        a.merge(b);
+        sparse.merge(a);
+        assertEquals(both.cardinality(), a.cardinality());
+        assertEquals(both.cardinality() + 1, sparse.cardinality(), 5);
+    }
+
+    public void testMergeRejectsDifferentPrecision() {
+        HyperLogLog<Integer> a = new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 12);
+        try {
+            a.merge(new HyperLogLog<Integer>(new JavaObjectHash<Integer>(), 11));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testRoundTrip() {
+        Hash<Integer> hash = new JavaObjectHash<Integer>();
+        HyperLogLog<Integer> h = new HyperLogLog<Integer>(hash, 14);
+        for (int i = 0; i < 200; i++)
+            h.offer(i);
+        byte[] sparse = h.toBytes();
+        assertTrue(sparse.length < 200 * 3);
+        assertEquals(h.cardinality(), HyperLogLog.fromBytes(hash, sparse).cardinality());
+
+        for (int i = 0; i < 100 * 1000; i++)
+            h.offer(i);
+        byte[] dense = h.toBytes();
+        assertEquals(2 + (1 << 14) * 6 / 8, dense.length);
+        HyperLogLog<Integer> copy = HyperLogLog.fromBytes(hash, dense);
+        assertFalse(copy.isSparse());
+        assertEquals(h.cardinality(), copy.cardinality());
+    }
+
+    public void testFromBytesRejectsCorruptPayloads() {
+        Hash<Integer> hash = new JavaObjectHash<Integer>();
+        HyperLogLog<Integer> h = new HyperLogLog<Integer>(hash, 10);
+        for (int i = 0; i < 100 * 1000; i++)
+            h.offer(i);
+        byte[] dense = h.toBytes();
+        assertNotHyperLogLog(hash, Arrays.copyOf(dense, dense.length - 1));
+        assertNotHyperLogLog(hash, Arrays.copyOf(dense, dense.length + 1));
+        byte[] highRank = dense.clone();
+        highRank[2] = (byte) 0x3f; // register 0 = 63 > 65 - 10
+        assertNotHyperLogLog(hash, highRank);
+
+        assertEquals(1, HyperLogLog.fromBytes(hash, sparse(10, 5 << 6 | 3)).cardinality());
+        assertNotHyperLogLog(hash, sparse(10, 1024 << 6 | 3)); // index >= m
+        assertNotHyperLogLog(hash, sparse(10, 5 << 6 | 56));   // rank > 65 - precision
+        assertNotHyperLogLog(hash, sparse(10, 5 << 6));        // rank 0
+        assertNotHyperLogLog(hash, sparse(10, 5 << 6 | 3, 5 << 6 | 3));
+        byte[] truncated = sparse(10, 5 << 6 | 3, 900 << 6 | 3);
+        assertNotHyperLogLog(hash, Arrays.copyOf(truncated, truncated.length - 1));
+        assertNotHyperLogLog(hash, new byte[]{1, 30, 0});
+        assertNotHyperLogLog(hash, new byte[]{3, 10, 0});
+    }
+
+    private static void assertNotHyperLogLog(Hash<Integer> hash, byte[] data) {
+        try {
+            HyperLogLog.fromBytes(hash, data);
+            fail("read a corrupt sketch");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("not a HyperLogLog", expected.getMessage());
+        }
+    }
+
+    /**
+     * a sparse payload holding the given (index &lt;&lt; 6 | rank) entries, in order
+     */
+    private static byte[] sparse(int precision, int... entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(1);
+        out.write(precision);
+        writeVarint(out, entries.length);
+        int prev = 0;
+        for (int e : entries) {
+            writeVarint(out, e - prev);
+            prev = e;
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+}
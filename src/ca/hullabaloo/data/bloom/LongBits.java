@@ -0,0 +1,47 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * Plain {@code long[]} bits; safe for concurrent readers only while nobody writes
+ */
+final class LongBits implements Bits {
+    private final long[] words;
+
+    LongBits(int size) {
+        this.words = new long[wordsFor(size)];
+    }
+
+    static int wordsFor(int bits) {
+        return (bits + Long.SIZE - 1) >>> 6;
+    }
+
+    public int size() {
+        return words.length << 6;
+    }
+
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public boolean set(int index) {
+        int w = index >>> 6;
+        long old = words[w];
+        words[w] = old | (1L << index);
+        return (old & (1L << index)) == 0;
+    }
+
+    public int words() {
+        return words.length;
+    }
+
+    public long word(int index) {
+        return words[index];
+    }
+
+    public void or(int index, long bits) {
+        words[index] |= bits;
+    }
+
+    public void and(int index, long bits) {
+        words[index] &= bits;
+    }
+}
@@ -0,0 +1,67 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * A bloom filter of primitive {@code long} keys (ints widen), with no boxing, no
+ * {@link Hash} call and no allocation.  Keys are mixed with the MurmurHash3 finalizer,
+ * which spreads sequential IDs well, then probed by double hashing as {@link Bloom} does.
+ * <p/>
+ * Not safe for concurrent writers.
+ */
+public class LongBloom {
+    private final long[] data;
+    private final long size;
+    private final int probes;
+
+    /**
+     * @param bits   size of the filter, rounded up to a whole number of 64-bit words
+     * @param probes number of bits set per element (k)
+     */
+    public LongBloom(int bits, int probes) {
+        Bloom.checkBits(bits);
+        if (probes <= 0)
+            throw new IllegalArgumentException("probes must be > 0:" + probes);
+        this.data = new long[LongBits.wordsFor(bits)];
+        this.size = data.length << 6;
+        this.probes = probes;
+    }
+
+    /**
+     * A filter sized to hold {@code expectedInsertions} elements with a false
+     * positive rate of {@code fpp}
+     */
+    public static LongBloom create(long expectedInsertions, double fpp) {
+        int bits = Bloom.optimalBits(expectedInsertions, fpp);
+        return new LongBloom(bits, Bloom.optimalProbes(expectedInsertions, bits));
+    }
+
+    public void add(long key) {
+        long x = HashIter.mix(key);
+        long h1 = x << 32, h2 = x & 0xffffffff00000000L;
+        for (int i = 1; i <= probes; i++) {
+            int bit = (int) ((((h1 + i * h2) >>> 32) * size) >>> 32);
+            data[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean probablyContains(long key) {
+        long x = HashIter.mix(key);
+        long h1 = x << 32, h2 = x & 0xffffffff00000000L;
+        for (int i = 1; i <= probes; i++) {
+            int bit = (int) ((((h1 + i * h2) >>> 32) * size) >>> 32);
+            if ((data[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Size of the filter in bits
+     */
+    public int bitSize() {
+        return (int) size;
+    }
+
+    public int probes() {
+        return probes;
+    }
+}
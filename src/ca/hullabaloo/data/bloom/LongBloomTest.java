@@ -0,0 +1,36 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+public class LongBloomTest extends TestCase {
+    private final LongBloom b = new LongBloom(1200, 4);
+
+    public void testEmptyDoesNotContain() {
+        assertFalse(b.probablyContains(1L));
+    }
+
+    public void testAdd() {
+        b.add(1L);
+        b.add(Long.MIN_VALUE);
+        b.add(-7);
+        assertTrue(b.probablyContains(1L));
+        assertTrue(b.probablyContains(Long.MIN_VALUE));
+        assertTrue(b.probablyContains(-7));
+        assertFalse(b.probablyContains(2L));
+    }
+
+    public void testFalsePositiveRateNearTarget() {
+        int n = 20 * 1000;
+        LongBloom b = LongBloom.create(n, 0.01);
+        assertEquals(7, b.probes());
+        for (long i = 0; i < n; i++)
+            b.add(i << 20);
+        for (long i = 0; i < n; i++)
+            assertTrue(b.probablyContains(i << 20));
+        int falsePositives = 0;
+        for (long i = n; i < 11 * n; i++)
+            if (b.probablyContains(i << 20)) falsePositives++;
+        double fpp = falsePositives / (10.0 * n);
+        assertTrue("fpp=" + fpp, fpp < 0.012);
+    }
+}
@@ -0,0 +1,48 @@
+package ca.hullabaloo.data.bloom;
+
+import java.nio.LongBuffer;
+
+/**
+ * Bits stored off-heap in a (usually memory mapped) buffer.  Like {@link LongBits},
+ * single writer only.
+ */
+final class MappedBits implements Bits {
+    private final LongBuffer words;
+
+    MappedBits(LongBuffer words) {
+        this.words = words;
+    }
+
+    public int size() {
+        return words.capacity() << 6;
+    }
+
+    public boolean get(int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    public boolean set(int index) {
+        int w = index >>> 6;
+        long old = words.get(w);
+        if ((old & (1L << index)) != 0)
+            return false;
+        words.put(w, old | (1L << index));
+        return true;
+    }
+
+    public int words() {
+        return words.capacity();
+    }
+
+    public long word(int index) {
+        return words.get(index);
+    }
+
+    public void or(int index, long bits) {
+        words.put(index, words.get(index) | bits);
+    }
+
+    public void and(int index, long bits) {
+        words.put(index, words.get(index) & bits);
+    }
+}
@@ -0,0 +1,129 @@
+package ca.hullabaloo.data.bloom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A bloom filter whose bits live in a memory mapped file, so a filter built once
+ * can be reopened by a later process and queried immediately; nothing is read
+ * up front and nothing lives on the heap.
+ * <p/>
+ * File layout (big endian): magic, version, bits, probes, then the class name of the
+ * {@link Hash} used to build it, padded to a multiple of 8 bytes, then the words.
+ */
+public class MappedBloom<E> extends Bloom<E> {
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x424c4d46; // BLMF
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER = 4 + 4 + 4 + 4 + 2;
+
+    private final MappedByteBuffer buffer;
+
+    private MappedBloom(Hash<E> hash, MappedByteBuffer buffer, int headerSize, int probes) {
+        super(hash, bitsOf(buffer, headerSize), probes);
+        this.buffer = buffer;
+    }
+
+    private static Bits bitsOf(ByteBuffer buffer, int headerSize) {
+        buffer.position(headerSize);
+        return new MappedBits(buffer.slice().asLongBuffer());
+    }
+
+    /**
+     * Creates (or truncates) {@code file} as an empty filter sized for
+     * {@code expectedInsertions} elements at {@code fpp}
+     */
+    public static <E> MappedBloom<E> create(File file, Hash<E> hash, long expectedInsertions, double fpp)
+            throws IOException {
+        int bits = optimalBits(expectedInsertions, fpp);
+        return create(file, hash, bits, optimalProbes(expectedInsertions, bits));
+    }
+
+    /**
+     * Creates (or truncates) {@code file} as an empty filter
+     *
+     * @param bits   size of the filter, rounded up to a whole number of 64-bit words
+     * @param probes number of bits set per element (k)
+     */
+    public static <E> MappedBloom<E> create(File file, Hash<E> hash, int bits, int probes) throws IOException {
+        checkBits(bits);
+        byte[] hashName = hashName(hash);
+        int headerSize = headerSize(hashName);
+        long length = headerSize + (long) LongBits.wordsFor(bits) * 8;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(length);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(bits).putInt(probes);
+            buf.putShort((short) hashName.length).put(hashName);
+            return new MappedBloom<E>(hash, buf, headerSize, probes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps an existing filter read-only; {@link #add} will throw
+     * {@link java.nio.ReadOnlyBufferException}.
+     *
+     * @throws IllegalArgumentException if the file was built with a different {@link Hash}
+     */
+    public static <E> MappedBloom<E> open(File file, Hash<E> hash) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < FIXED_HEADER)
+                throw new IOException("not a bloom filter: " + file);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buf.getInt() != MAGIC)
+                throw new IOException("not a bloom filter: " + file);
+            int version = buf.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported bloom filter version " + version + ": " + file);
+            int bits = buf.getInt();
+            if (bits <= 0 || bits > MAX_BITS)
+                throw new IOException("bits out of range " + bits + ": " + file);
+            int probes = buf.getInt();
+            if (probes <= 0)
+                throw new IOException("probes out of range " + probes + ": " + file);
+            int nameLength = buf.getShort();
+            if (nameLength < 0 || nameLength > buf.remaining())
+                throw new IOException("truncated bloom filter: " + file);
+            byte[] hashName = new byte[nameLength];
+            buf.get(hashName);
+
+            String expected = new String(hashName(hash), utf8);
+            String actual = new String(hashName, utf8);
+            if (!expected.equals(actual))
+                throw new IllegalArgumentException("filter was built with " + actual + ", not " + expected);
+            int headerSize = headerSize(hashName);
+            if (length != headerSize + (long) LongBits.wordsFor(bits) * 8)
+                throw new IOException("truncated bloom filter: " + file);
+            return new MappedBloom<E>(hash, buf, headerSize, probes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes any changes through to the file
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    private static byte[] hashName(Hash<?> hash) {
+        return hash.getClass().getName().getBytes(utf8);
+    }
+
+    private static int headerSize(byte[] hashName) {
+        return (FIXED_HEADER + hashName.length + 7) & ~7;
+    }
+}
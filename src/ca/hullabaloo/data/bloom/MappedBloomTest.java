@@ -0,0 +1,109 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ReadOnlyBufferException;
+
+public class MappedBloomTest extends TestCase {
+    private File file;
+
+    public void setUp() throws IOException {
+        file = File.createTempFile("bloom", ".bin");
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    public void testEmptyDoesNotContain() throws IOException {
+        MappedBloom<String> b = MappedBloom.create(file, new JavaObjectHash<String>(), 100, 0.01);
+        assertFalse(b.probablyContains("x"));
+    }
+
+    public void testReopen() throws IOException {
+        MappedBloom<String> b = MappedBloom.create(file, new JavaObjectHash<String>(), 100, 0.01);
+        b.add("foo");
+        b.add("bar");
+        b.force();
+
+        MappedBloom<String> reopened = MappedBloom.open(file, new JavaObjectHash<String>());
+        assertEquals(b.bitSize(), reopened.bitSize());
+        assertEquals(b.probes(), reopened.probes());
+        assertTrue(reopened.probablyContains("foo"));
+        assertTrue(reopened.probablyContains("bar"));
+        assertFalse(reopened.probablyContains("baz"));
+    }
+
+    public void testOpenedReadOnly() throws IOException {
+        MappedBloom.create(file, new JavaObjectHash<String>(), 100, 0.01).force();
+        MappedBloom<String> b = MappedBloom.open(file, new JavaObjectHash<String>());
+        try {
+            b.add("foo");
+            fail();
+        } catch (ReadOnlyBufferException e) {
+            // expected
+        }
+    }
+
+    public void testMismatchedHash() throws IOException {
+        MappedBloom.create(file, new JavaObjectHash<String>(), 100, 0.01).force();
+        try {
+            MappedBloom.open(file, new Hash<String>() {
+                public int longSize() {
+                    return 1;
+                }
+
+                public void hash(String object, long[] result) {
+                    result[0] = object.length();
+                }
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testNotABloomFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            MappedBloom.open(file, new JavaObjectHash<String>());
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testCorruptHeader() throws IOException {
+        // offsets of bits, probes and the hash name's length
+        int[][] corruptions = {{8, -1}, {8, 0}, {12, 0}, {12, -3}, {16, 0xffff0000}, {16, 0x7fff0000}};
+        for (int[] c : corruptions) {
+            MappedBloom.create(file, new JavaObjectHash<String>(), 100, 0.01).force();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.seek(c[0]);
+            raf.writeInt(c[1]);
+            raf.close();
+            assertOpenFails("at " + c[0]);
+        }
+
+        MappedBloom.create(file, new JavaObjectHash<String>(), 100, 0.01).force();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(20);
+        raf.close();
+        assertOpenFails("truncated in the name");
+    }
+
+    private void assertOpenFails(String message) {
+        try {
+            MappedBloom.open(file, new JavaObjectHash<String>());
+            fail(message);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
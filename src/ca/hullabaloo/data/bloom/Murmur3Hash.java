@@ -0,0 +1,203 @@
+package ca.hullabaloo.data.bloom;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * MurmurHash3, x64 128-bit variant.  Gives a bloom filter two full 64-bit hashes
+ * per element, where {@link JavaObjectHash} only has a 32-bit hashCode to work with.
+ * <p/>
+ * All flavours hash the same bytes to the same value; a {@link CharSequence} hashes
+ * as its UTF-8 encoding (as {@code String.getBytes("UTF-8")} would produce), encoded a
+ * character at a time rather than into a new array.  Nothing allocates.
+ */
+public abstract class Murmur3Hash<E> implements SliceHash<E> {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long seed;
+
+    Murmur3Hash(long seed) {
+        this.seed = seed;
+    }
+
+    public static Murmur3Hash<byte[]> bytes() {
+        return new Bytes(0);
+    }
+
+    /**
+     * Hashes the bytes between a buffer's position and limit, without moving either
+     */
+    public static Murmur3Hash<ByteBuffer> byteBuffers() {
+        return new Buffers(0);
+    }
+
+    public static Murmur3Hash<CharSequence> charSequences() {
+        return new Chars(0);
+    }
+
+    public int longSize() {
+        return 2;
+    }
+
+    public void hash(byte[] data, int offset, int length, long[] h) {
+        h[0] = h[1] = seed;
+        int end = offset + length, blocksEnd = offset + (length & ~15);
+        int i = offset;
+        for (; i < blocksEnd; i += 16)
+            block(h, getLong(data, i), getLong(data, i + 8));
+        long k1 = 0, k2 = 0;
+        for (int n = 0; i < end; i++, n++) {
+            long b = data[i] & 0xffL;
+            if (n < 8) k1 |= b << (n << 3);
+            else k2 |= b << ((n - 8) << 3);
+        }
+        finish(h, k1, k2, length);
+    }
+
+    void hashBuffer(ByteBuffer buf, long[] h) {
+        int pos = buf.position(), length = buf.remaining();
+        if (buf.hasArray()) {
+            hash(buf.array(), buf.arrayOffset() + pos, length, h);
+            return;
+        }
+        h[0] = h[1] = seed;
+        boolean swap = buf.order() == ByteOrder.BIG_ENDIAN;
+        int end = pos + length, blocksEnd = pos + (length & ~15);
+        int i = pos;
+        for (; i < blocksEnd; i += 16) {
+            long k1 = buf.getLong(i), k2 = buf.getLong(i + 8);
+            if (swap) {
+                k1 = Long.reverseBytes(k1);
+                k2 = Long.reverseBytes(k2);
+            }
+            block(h, k1, k2);
+        }
+        long k1 = 0, k2 = 0;
+        for (int n = 0; i < end; i++, n++) {
+            long b = buf.get(i) & 0xffL;
+            if (n < 8) k1 |= b << (n << 3);
+            else k2 |= b << ((n - 8) << 3);
+        }
+        finish(h, k1, k2, length);
+    }
+
+    void hashChars(CharSequence s, long[] h) {
+        h[0] = h[1] = seed;
+        long k1 = 0, k2 = 0, length = 0;
+        int n = 0; // bytes in the current block
+        for (int i = 0, len = s.length(); i < len; i++) {
+            // the next character's UTF-8 bytes, first byte lowest
+            int enc, bytes;
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                enc = c;
+                bytes = 1;
+            } else if (c < 0x800) {
+                enc = (0xc0 | (c >> 6)) | (0x80 | (c & 0x3f)) << 8;
+                bytes = 2;
+            } else if (!Character.isSurrogate(c)) {
+                enc = (0xe0 | (c >> 12)) | (0x80 | ((c >> 6) & 0x3f)) << 8 | (0x80 | (c & 0x3f)) << 16;
+                bytes = 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                enc = (0xf0 | (cp >> 18)) | (0x80 | ((cp >> 12) & 0x3f)) << 8
+                        | (0x80 | ((cp >> 6) & 0x3f)) << 16 | (0x80 | (cp & 0x3f)) << 24;
+                bytes = 4;
+            } else {
+                // unpaired surrogate; the encoder substitutes '?'
+                enc = '?';
+                bytes = 1;
+            }
+            length += bytes;
+            for (; bytes > 0; bytes--, enc >>>= 8) {
+                long b = enc & 0xffL;
+                if (n < 8) k1 |= b << (n << 3);
+                else k2 |= b << ((n - 8) << 3);
+                if (++n == 16) {
+                    block(h, k1, k2);
+                    k1 = k2 = n = 0;
+                }
+            }
+        }
+        finish(h, k1, k2, length);
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xffL)
+                | (b[i + 1] & 0xffL) << 8
+                | (b[i + 2] & 0xffL) << 16
+                | (b[i + 3] & 0xffL) << 24
+                | (b[i + 4] & 0xffL) << 32
+                | (b[i + 5] & 0xffL) << 40
+                | (b[i + 6] & 0xffL) << 48
+                | (b[i + 7] & 0xffL) << 56;
+    }
+
+    private static void block(long[] h, long k1, long k2) {
+        long h1 = h[0], h2 = h[1];
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27) + h2;
+        h1 = h1 * 5 + 0x52dce729;
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31) + h1;
+        h2 = h2 * 5 + 0x38495ab5;
+        h[0] = h1;
+        h[1] = h2;
+    }
+
+    /**
+     * mixes in the tail (k1, k2 are zero where there are no bytes left) and finalizes
+     */
+    private static void finish(long[] h, long k1, long k2, long length) {
+        long h1 = h[0] ^ mixK1(k1), h2 = h[1] ^ mixK2(k2);
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = HashIter.mix(h1);
+        h2 = HashIter.mix(h2);
+        h1 += h2;
+        h2 += h1;
+        h[0] = h1;
+        h[1] = h2;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static final class Bytes extends Murmur3Hash<byte[]> {
+        Bytes(long seed) {
+            super(seed);
+        }
+
+        public void hash(byte[] object, long[] result) {
+            hash(object, 0, object.length, result);
+        }
+    }
+
+    private static final class Buffers extends Murmur3Hash<ByteBuffer> {
+        Buffers(long seed) {
+            super(seed);
+        }
+
+        public void hash(ByteBuffer object, long[] result) {
+            hashBuffer(object, result);
+        }
+    }
+
+    private static final class Chars extends Murmur3Hash<CharSequence> {
+        Chars(long seed) {
+            super(seed);
+        }
+
+        public void hash(CharSequence object, long[] result) {
+            hashChars(object, result);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+public class Murmur3HashTest extends TestCase {
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private final long[] result = new long[2];
+
+    public void testKnownValues() {
+        checkBytes("", 0, 0);
+        checkBytes("a", -8839064797231613815L, -1822486391929534118L);
+        checkBytes("hello", -3758069500696749310L, 6565844092913065241L);
+        checkBytes("The quick brown fox jumps over the lazy dog", -2068352364225029268L, 8809951995912426311L);
+    }
+
+    public void testSlice() {
+        byte[] data = "xxhelloxx".getBytes(utf8);
+        Murmur3Hash.bytes().hash(data, 2, 5, result);
+        assertEquals(-3758069500696749310L, result[0]);
+        assertEquals(6565844092913065241L, result[1]);
+    }
+
+    public void testCharSequenceHashesAsUtf8() {
+        String[] strings = {"", "a", "hello", "h\u00e9llo \u20ac \ud83d\ude00", "dangling \ud83d surrogate",
+                "The quick brown fox jumps over the lazy dog", "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9"};
+        for (String s : strings) {
+            long[] expected = new long[2];
+            Murmur3Hash.bytes().hash(s.getBytes(utf8), expected);
+            Murmur3Hash.charSequences().hash(new StringBuilder(s), result);
+            assertEquals(s, expected[0], result[0]);
+            assertEquals(s, expected[1], result[1]);
+        }
+    }
+
+    public void testBuffers() {
+        byte[] data = new byte[40];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        long[] expected = new long[2];
+        Murmur3Hash.bytes().hash(data, 3, 35, expected);
+
+        ByteBuffer heap = ByteBuffer.wrap(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).clear();
+        ByteBuffer littleDirect = direct.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for (ByteBuffer buf : new ByteBuffer[]{heap, heap.asReadOnlyBuffer(), direct, littleDirect}) {
+            buf.position(3).limit(38);
+            Murmur3Hash.byteBuffers().hash(buf, result);
+            assertEquals(expected[0], result[0]);
+            assertEquals(expected[1], result[1]);
+            assertEquals(3, buf.position());
+            assertEquals(38, buf.limit());
+        }
+    }
+
+    public void testFalsePositiveRateNearTarget() {
+        int n = 20 * 1000;
+        Bloom<CharSequence> b = Bloom.create(Murmur3Hash.charSequences(), n, 0.01);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            b.add(key(key, i));
+        int falsePositives = 0;
+        for (int i = n; i < 11 * n; i++)
+            if (b.probablyContains(key(key, i))) falsePositives++;
+        double fpp = falsePositives / (10.0 * n);
+        assertTrue("fpp=" + fpp, fpp < 0.012);
+    }
+
+    private static CharSequence key(StringBuilder buf, int i) {
+        buf.setLength(0);
+        return buf.append("key-").append(i);
+    }
+
+    private void checkBytes(String s, long h1, long h2) {
+        Murmur3Hash.bytes().hash(s.getBytes(utf8), result);
+        assertEquals(s, h1, result[0]);
+        assertEquals(s, h2, result[1]);
+    }
+}
@@ -0,0 +1,68 @@
+package ca.hullabaloo.data.bloom;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a {@link Bloom} from a large array of keys using a fork-join pool.  The
+ * keys are split into about one run per worker; each run fills a private filter and
+ * the results are {@link Bloom#union union}ed on the way back up, so no bit is
+ * ever shared between threads while building.  The built filter's
+ * {@link Bloom#addCount} counts every key.
+ * <p/>
+ * Peak memory is roughly one filter per worker.
+ */
+public class ParallelBloomBuilder<E> {
+    private final ForkJoinPool pool;
+    private final Bloom<E> template;
+
+    /**
+     * @param template an (empty) filter giving the size, probes and hash to build with
+     */
+    public ParallelBloomBuilder(ForkJoinPool pool, Bloom<E> template) {
+        this.pool = pool;
+        this.template = template;
+    }
+
+    public Bloom<E> build(E[] keys) {
+        int runs = Math.max(1, pool.getParallelism());
+        int threshold = Math.max(1, (keys.length + runs - 1) / runs);
+        return pool.invoke(new Fill<E>(template, keys, 0, keys.length, threshold));
+    }
+
+    private static class Fill<E> extends RecursiveTask<Bloom<E>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Bloom<E> template;
+        private final E[] keys;
+        private final int lo;
+        private final int hi;
+        private final int threshold;
+
+        Fill(Bloom<E> template, E[] keys, int lo, int hi, int threshold) {
+            this.template = template;
+            this.keys = keys;
+            this.lo = lo;
+            this.hi = hi;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Bloom<E> compute() {
+            if (hi - lo <= threshold) {
+                Bloom<E> result = template.emptyCopy();
+                result.addAll(keys, lo, hi - lo);
+                return result;
+            }
+            int mid = (lo + hi) >>> 1;
+            Fill<E> left = new Fill<E>(template, keys, lo, mid, threshold);
+            left.fork();
+            Bloom<E> result = new Fill<E>(template, keys, mid, hi, threshold).compute();
+            Bloom<E> other = left.join();
+            // union merges bits only
+            result.union(other);
+            result.countAdds(other.addCount());
+            return result;
+        }
+    }
+}
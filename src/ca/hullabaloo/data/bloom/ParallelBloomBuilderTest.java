@@ -0,0 +1,41 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelBloomBuilderTest extends TestCase {
+    private ForkJoinPool pool;
+
+    public void testSameBitsAsSequentialBuild() {
+        Integer[] keys = new Integer[100 * 1000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+        Bloom<Integer> expected = Bloom.create(new JavaObjectHash<Integer>(), keys.length, 0.01);
+        expected.addAll(keys);
+
+        Bloom<Integer> template = Bloom.create(new JavaObjectHash<Integer>(), keys.length, 0.01);
+        Bloom<Integer> actual = new ParallelBloomBuilder<Integer>(pool, template).build(keys);
+        assertTrue(actual.isCompatible(expected));
+        assertEquals(keys.length, actual.addCount());
+        Bits e = expected.bits(), a = actual.bits();
+        for (int i = 0; i < e.words(); i++)
+            assertEquals("word " + i, e.word(i), a.word(i));
+        // the template is left alone
+        assertFalse(template.probablyContains(1));
+    }
+
+    public void testEmptyInput() {
+        Bloom<Integer> template = Bloom.create(new JavaObjectHash<Integer>(), 100, 0.01);
+        Bloom<Integer> actual = new ParallelBloomBuilder<Integer>(pool, template).build(new Integer[0]);
+        assertFalse(actual.probablyContains(1));
+    }
+
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    public void tearDown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,112 @@
+package ca.hullabaloo.data.bloom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bloom filter for when the number of elements isn't known up front.  It's a
+ * chain of {@link Bloom} slices; when the newest slice has taken as many elements as
+ * it was sized for, a larger one is added with a tighter false positive rate.  The
+ * slice rates form a geometric series, so the overall rate stays under the
+ * configured bound however far the filter grows.  Once a slice would need more than
+ * {@link Bloom#MAX_BITS}, slices stop doubling and hold only what fits at their rate.
+ * <p/>
+ * See Almeida, Baquero, Preguica &amp; Hutchison, "Scalable Bloom Filters".
+ * Not safe for concurrent writers.
+ */
+public class ScalableBloom<E> {
+    /**
+     * each slice holds this many times as many elements as the last
+     */
+    private static final int GROWTH = 2;
+    /**
+     * each slice's false positive rate is this fraction of the last one's
+     */
+    private static final double TIGHTENING = 0.5;
+
+    private final Hash<E> hash;
+    private final int maxSliceBits;
+    private final List<Bloom<E>> slices = new ArrayList<Bloom<E>>();
+    private long sliceCapacity;
+    private double sliceFpp;
+    private long sliceCount;
+
+    /**
+     * @param initialCapacity elements held by the first slice
+     * @param fpp             bound on the false positive rate of the whole filter
+     */
+    public ScalableBloom(Hash<E> hash, long initialCapacity, double fpp) {
+        this(hash, initialCapacity, fpp, Bloom.MAX_BITS);
+    }
+
+    ScalableBloom(Hash<E> hash, long initialCapacity, double fpp, int maxSliceBits) {
+        if (initialCapacity <= 0)
+            throw new IllegalArgumentException("initialCapacity must be > 0:" + initialCapacity);
+        if (!(fpp > 0 && fpp < 1))
+            throw new IllegalArgumentException("fpp must be in (0,1):" + fpp);
+        this.hash = hash;
+        this.maxSliceBits = Bloom.checkBits(maxSliceBits);
+        // P0 + P0*r + P0*r^2 + ... = P0 / (1 - r) = fpp
+        addSlice(initialCapacity, fpp * (1 - TIGHTENING));
+    }
+
+    /**
+     * Adds an element, unless it's (probably) already present
+     */
+    public void add(E o) {
+        if (probablyContains(o))
+            return;
+        if (sliceCount >= sliceCapacity)
+            grow();
+        slices.get(slices.size() - 1).add(o);
+        sliceCount++;
+    }
+
+    public boolean probablyContains(E o) {
+        // newest first; it's the biggest and has the most recent elements
+        for (int i = slices.size() - 1; i >= 0; i--) {
+            if (slices.get(i).probablyContains(o))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Number of slices; more than one means the filter has outgrown its initial capacity
+     */
+    public int sliceCount() {
+        return slices.size();
+    }
+
+    /**
+     * Total size of all slices, in bits
+     */
+    public long bitSize() {
+        long result = 0;
+        for (Bloom<E> slice : slices)
+            result += slice.bitSize();
+        return result;
+    }
+
+    private void grow() {
+        addSlice(sliceCapacity * GROWTH, sliceFpp * TIGHTENING);
+    }
+
+    /**
+     * Adds a slice for {@code capacity} elements at {@code fpp}, or for as many as fit in
+     * {@link #maxSliceBits} at that rate; a slice is never filled past its rate
+     *
+     * @throws IllegalStateException if not even one element fits
+     */
+    private void addSlice(long capacity, double fpp) {
+        // n = -m ln(2)^2 / ln(p), the inverse of Bloom.optimalBits
+        long fits = (long) (maxSliceBits * Math.log(2) * Math.log(2) / -Math.log(fpp));
+        if (fits < 1)
+            throw new IllegalStateException("no room for another slice at fpp " + fpp);
+        sliceCapacity = Math.min(capacity, fits);
+        sliceFpp = fpp;
+        sliceCount = 0;
+        int bits = Math.min(maxSliceBits, Bloom.optimalBits(sliceCapacity, fpp));
+        slices.add(new Bloom<E>(hash, bits, Bloom.optimalProbes(sliceCapacity, bits), false));
+    }
+}
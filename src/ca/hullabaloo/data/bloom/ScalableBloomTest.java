@@ -0,0 +1,67 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+public class ScalableBloomTest extends TestCase {
+    private final ScalableBloom<Integer> b = new ScalableBloom<Integer>(new JavaObjectHash<Integer>(), 100, 0.01);
+
+    public void testEmptyDoesNotContain() {
+        assertFalse(b.probablyContains(1));
+        assertEquals(1, b.sliceCount());
+    }
+
+    public void testAdd() {
+        b.add(1);
+        assertTrue(b.probablyContains(1));
+    }
+
+    public void testGrowsPastInitialCapacity() {
+        long initialBits = b.bitSize();
+        // 100 + 200 + 400 + 800 < 2000
+        for (int i = 0; i < 2000; i++)
+            b.add(i);
+        assertEquals(5, b.sliceCount());
+        assertTrue(b.bitSize() > 20 * initialBits);
+        for (int i = 0; i < 2000; i++)
+            assertTrue(b.probablyContains(i));
+    }
+
+    public void testFalsePositiveRateStaysUnderBound() {
+        int n = 3000;
+        for (int i = 0; i < n; i++)
+            b.add(i);
+        int falsePositives = 0;
+        for (int i = n; i < 101 * n; i++)
+            if (b.probablyContains(i)) falsePositives++;
+        double fpp = falsePositives / (100.0 * n);
+        assertTrue("fpp=" + fpp, fpp < 0.01);
+    }
+
+    public void testSlicesStopDoublingAtTheBitCap() {
+        int maxBits = 4096;
+        ScalableBloom<Integer> capped = new ScalableBloom<Integer>(new JavaObjectHash<Integer>(), 100, 0.01, maxBits);
+        int n = 5000;
+        for (int i = 0; i < n; i++)
+            capped.add(i);
+        // doubling alone would need 7 slices, the last over 10x the cap
+        assertTrue(capped.sliceCount() > 7);
+        assertTrue(capped.bitSize() <= (long) capped.sliceCount() * (maxBits + 63));
+        for (int i = 0; i < n; i++)
+            assertTrue(capped.probablyContains(i));
+        int falsePositives = 0;
+        for (int i = n; i < 101 * n; i++)
+            if (capped.probablyContains(i)) falsePositives++;
+        double fpp = falsePositives / (100.0 * n);
+        assertTrue("fpp=" + fpp, fpp < 0.01);
+    }
+
+    public void testThrowsOnceNoSliceFits() {
+        ScalableBloom<Integer> capped = new ScalableBloom<Integer>(new JavaObjectHash<Integer>(), 4, 0.01, 64);
+        try {
+            for (int i = 0; i < 10000; i++)
+                capped.add(i);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
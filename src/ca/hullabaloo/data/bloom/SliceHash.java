@@ -0,0 +1,9 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * A hash that can also be applied to a range of bytes directly, so callers
+ * holding a buffer don't have to copy or wrap it into an {@code E} first.
+ */
+public interface SliceHash<E> extends Hash<E> {
+    public void hash(byte[] data, int offset, int length, long[] result);
+}
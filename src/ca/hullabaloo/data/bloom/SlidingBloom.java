@@ -0,0 +1,118 @@
+package ca.hullabaloo.data.bloom;
+
+/**
+ * Remembers elements for a sliding window, for deduplicating a stream.  A ring of
+ * equally sized bloom generations: writes go to the current one, reads check them
+ * all, and {@link #rotate} clears the oldest and makes it current.  Rotating every
+ * {@code T} means an element is remembered for between {@code (generations - 1) * T}
+ * and {@code generations * T} after it was last seen.
+ * <p/>
+ * If built {@code concurrent}, adds and queries may come from many threads, though
+ * two threads adding the same new element at once may both be told it was absent.
+ * {@link #rotate} should be called from one thread at a time.
+ */
+public class SlidingBloom<E> {
+    private final Bits[] generations;
+    private final Hashes bufs;
+    private final int probes;
+    private volatile int current;
+
+    /**
+     * @param bits   size of each generation
+     * @param probes number of bits set per element (k)
+     */
+    public SlidingBloom(Hash<E> hash, int generations, int bits, int probes, boolean concurrent) {
+        if (generations < 2)
+            throw new IllegalArgumentException("need at least 2 generations:" + generations);
+        Bloom.checkBits(bits);
+        this.generations = new Bits[generations];
+        for (int i = 0; i < generations; i++)
+            this.generations[i] = concurrent ? new AtomicLongBits(bits) : new LongBits(bits);
+        this.probes = probes;
+        this.bufs = new Hashes(hash, this.generations[0].size(), probes);
+    }
+
+    /**
+     * A filter whose generations each hold {@code perGeneration} elements at a false
+     * positive rate of {@code fpp}; the whole window's rate is up to {@code generations} times that
+     */
+    public static <E> SlidingBloom<E> create(Hash<E> hash, int generations, long perGeneration, double fpp, boolean concurrent) {
+        int bits = Bloom.optimalBits(perGeneration, fpp);
+        return new SlidingBloom<E>(hash, generations, bits, Bloom.optimalProbes(perGeneration, bits), concurrent);
+    }
+
+    /**
+     * Records the element and says whether it is new to the window, in one pass over
+     * its probes.  A seen element is recorded again, which restarts its window.
+     *
+     * @return true if the element was (definitely) not in the window
+     */
+    public boolean addIfAbsent(E o) {
+        HashIter hashes = bufs.get();
+        hashes.reset(o);
+        bufs.added(hashes, 1);
+        int cur = current;
+        Bits bits = generations[cur];
+        int[] positions = hashes.scratch(probes);
+        boolean changed = false;
+        for (int i = 0; hashes.hasNext(); i++) {
+            positions[i] = hashes.next();
+            changed |= bits.set(positions[i]);
+        }
+        // every bit already set here means the current generation has it
+        return changed && !inOlder(cur, positions);
+    }
+
+    public boolean probablyContains(E o) {
+        HashIter hashes = bufs.get();
+        hashes.reset(o);
+        bufs.queried(hashes, 1);
+        int[] positions = hashes.scratch(probes);
+        for (int i = 0; hashes.hasNext(); i++)
+            positions[i] = hashes.next();
+        int cur = current;
+        return contains(generations[cur], positions) || inOlder(cur, positions);
+    }
+
+    private boolean inOlder(int cur, int[] positions) {
+        for (int i = 0; i < generations.length; i++)
+            if (i != cur && contains(generations[i], positions)) return true;
+        return false;
+    }
+
+    private boolean contains(Bits bits, int[] positions) {
+        for (int i = 0; i < probes; i++)
+            if (!bits.get(positions[i])) return false;
+        return true;
+    }
+
+    /**
+     * Forgets the oldest generation and starts writing to it; O(words) in one generation
+     */
+    public void rotate() {
+        int next = (current + 1) % generations.length;
+        Bits oldest = generations[next];
+        for (int i = 0; i < oldest.words(); i++)
+            oldest.and(i, 0L);
+        current = next;
+    }
+
+    public int generations() {
+        return generations.length;
+    }
+
+    /**
+     * Total bits over all generations
+     */
+    public long bitSize() {
+        return (long) generations.length * generations[0].size();
+    }
+
+    public long addCount() {
+        return bufs.adds();
+    }
+
+    public long queryCount() {
+        return bufs.queries();
+    }
+}
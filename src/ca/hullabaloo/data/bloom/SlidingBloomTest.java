@@ -0,0 +1,61 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+public class SlidingBloomTest extends TestCase {
+    private SlidingBloom<String> create() {
+        return SlidingBloom.create(new JavaObjectHash<String>(), 3, 1000, 0.001, false);
+    }
+
+    public void testAddIfAbsent() {
+        SlidingBloom<String> f = create();
+        assertTrue(f.addIfAbsent("foo"));
+        assertFalse(f.addIfAbsent("foo"));
+        assertTrue(f.probablyContains("foo"));
+        assertFalse(f.probablyContains("bar"));
+        assertEquals(2, f.addCount());
+    }
+
+    public void testRememberedForTheWindow() {
+        SlidingBloom<String> f = create();
+        f.addIfAbsent("foo");
+        f.rotate();
+        f.rotate();
+        assertTrue(f.probablyContains("foo"));
+        f.rotate();
+        assertFalse(f.probablyContains("foo"));
+        assertTrue(f.addIfAbsent("foo"));
+    }
+
+    public void testSeeingAgainRestartsTheWindow() {
+        SlidingBloom<String> f = create();
+        f.addIfAbsent("foo");
+        f.rotate();
+        f.rotate();
+        assertFalse(f.addIfAbsent("foo"));
+        f.rotate();
+        f.rotate();
+        assertTrue(f.probablyContains("foo"));
+    }
+
+    public void testDedupesAStream() {
+        SlidingBloom<Integer> f = SlidingBloom.create(new JavaObjectHash<Integer>(), 4, 10 * 1000, 0.001, true);
+        int fresh = 0;
+        for (int round = 0; round < 20; round++) {
+            // each generation sees 5000 new ids and repeats of the previous 5000
+            for (int i = round * 5000 - 5000; i < round * 5000 + 5000; i++)
+                if (i >= 0 && f.addIfAbsent(i)) fresh++;
+            f.rotate();
+        }
+        // false positives: up to 4 generations at 0.1% each
+        assertEquals(100 * 1000, fresh, 400);
+    }
+
+    public void testRejectsSingleGeneration() {
+        try {
+            new SlidingBloom<String>(new JavaObjectHash<String>(), 1, 1024, 2, false);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
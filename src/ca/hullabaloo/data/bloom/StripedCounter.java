@@ -0,0 +1,40 @@
+package ca.hullabaloo.data.bloom;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count that many threads add to at once.  Each thread adds to one of several
+ * stripes, a cache line apart, so threads rarely contend on a line; reading sums
+ * them.  (What {@code java.util.concurrent.atomic.LongAdder} does, which Java 7 lacks.)
+ */
+class StripedCounter {
+    /**
+     * longs per 64 byte cache line
+     */
+    private static final int PAD = 8;
+    private static final int STRIPES =
+            Integer.highestOneBit(Math.min(64, 4 * Runtime.getRuntime().availableProcessors()));
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    /**
+     * The stripe for the calling thread; look it up once and keep it
+     */
+    static int stripe() {
+        return (int) HashIter.mix(Thread.currentThread().getId()) & (STRIPES - 1);
+    }
+
+    void add(int stripe, long n) {
+        cells.getAndAdd(stripe * PAD, n);
+    }
+
+    /**
+     * The total; not a snapshot if other threads are adding
+     */
+    long sum() {
+        long result = 0;
+        for (int i = 0; i < STRIPES; i++)
+            result += cells.get(i * PAD);
+        return result;
+    }
+}
@@ -0,0 +1,25 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+public class StripedCounterTest extends TestCase {
+    public void testShortLivedThreadsAllCount() throws InterruptedException {
+        final StripedCounter c = new StripedCounter();
+        for (int round = 0; round < 50; round++) {
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread() {
+                    public void run() {
+                        int stripe = StripedCounter.stripe();
+                        for (int i = 0; i < 1000; i++)
+                            c.add(stripe, 1);
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread t : threads)
+                t.join();
+        }
+        assertEquals(50 * 4 * 1000, c.sum());
+    }
+}
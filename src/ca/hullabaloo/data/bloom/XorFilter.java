@@ -0,0 +1,154 @@
+package ca.hullabaloo.data.bloom;
+
+import java.util.Arrays;
+
+/**
+ * An immutable filter for key sets known up front, using about 9.8 bits per key
+ * for a false positive rate of 1/256 (0.4%); a {@link Bloom} needs ~11.5 for the
+ * same rate.  Each key gets an 8-bit fingerprint, and three table slots chosen so
+ * that the slots XOR to the fingerprint; a lookup is exactly three reads.
+ * <p/>
+ * See Graf &amp; Lemire, "Xor Filters: Faster and Smaller Than Bloom and Cuckoo Filters".
+ */
+public class XorFilter<E> {
+    private static final int HASHES = 3;
+    private static final int MAX_ATTEMPTS = 100;
+
+    private final ThreadLocal<HashIter> bufs;
+    private final byte[] fingerprints;
+    private final int blockLength;
+    private final long seed;
+    private final int size;
+
+    /**
+     * Builds a filter that contains {@code keys}; duplicates are fine
+     *
+     * @throws IllegalStateException if no seed gives a usable table, which is vanishingly
+     *                               unlikely for distinct keys
+     */
+    public XorFilter(Hash<E> hash, E[] keys) {
+        this.bufs = new Hashes(hash, 1, 1);
+        long[] hashes = distinctHashes(keys);
+        this.size = hashes.length;
+        this.blockLength = (int) ((32 + 1.23 * hashes.length) / HASHES);
+        this.fingerprints = new byte[blockLength * HASHES];
+
+        long[] order = new long[hashes.length];
+        int[] orderSlot = new int[hashes.length];
+        long seed = 0;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt == MAX_ATTEMPTS)
+                throw new IllegalStateException("couldn't build an xor filter of " + keys.length + " keys");
+            seed += 0x9E3779B97F4A7C15L;
+            if (peel(hashes, seed, order, orderSlot))
+                break;
+        }
+        this.seed = seed;
+
+        // assign slots in reverse peeling order; each key's own slot is still zero
+        // when it comes up, so XORing in all three slots is the same as the other two
+        for (int i = hashes.length - 1; i >= 0; i--) {
+            long h = HashIter.mix(order[i] + seed);
+            fingerprints[orderSlot[i]] = (byte) (fingerprint(h)
+                    ^ fingerprints[slot(h, 0)] ^ fingerprints[slot(h, 1)] ^ fingerprints[slot(h, 2)]);
+        }
+    }
+
+    public boolean probablyContains(E o) {
+        HashIter h = bufs.get();
+        h.reset(o);
+        long x = HashIter.mix(key(h) + seed);
+        byte f = (byte) (fingerprints[slot(x, 0)] ^ fingerprints[slot(x, 1)] ^ fingerprints[slot(x, 2)]);
+        return f == (byte) fingerprint(x);
+    }
+
+    /**
+     * Number of distinct keys (by hash) the filter was built from
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Size of the filter in bits
+     */
+    public long bitSize() {
+        return (long) fingerprints.length * Byte.SIZE;
+    }
+
+    /**
+     * Finds an order to assign keys in: repeatedly take a slot only one remaining key
+     * maps to, and remove that key.  Succeeds if every key gets removed.
+     */
+    private boolean peel(long[] keys, long seed, long[] order, int[] orderSlot) {
+        int m = fingerprints.length;
+        int[] count = new int[m];
+        long[] xor = new long[m];
+        for (long k : keys) {
+            long h = HashIter.mix(k + seed);
+            for (int i = 0; i < HASHES; i++) {
+                int s = slot(h, i);
+                count[s]++;
+                xor[s] ^= k;
+            }
+        }
+
+        int[] alone = new int[m];
+        int top = 0;
+        for (int s = 0; s < m; s++)
+            if (count[s] == 1) alone[top++] = s;
+
+        int peeled = 0;
+        while (top > 0) {
+            int s = alone[--top];
+            if (count[s] != 1)
+                continue;
+            // the only key left in this slot
+            long k = xor[s];
+            order[peeled] = k;
+            orderSlot[peeled++] = s;
+            long h = HashIter.mix(k + seed);
+            for (int i = 0; i < HASHES; i++) {
+                int t = slot(h, i);
+                xor[t] ^= k;
+                if (--count[t] == 1) alone[top++] = t;
+            }
+        }
+        return peeled == keys.length;
+    }
+
+    private long[] distinctHashes(E[] keys) {
+        HashIter h = bufs.get();
+        long[] result = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            h.reset(keys[i]);
+            result[i] = key(h);
+        }
+        Arrays.sort(result);
+        int n = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1])
+                result[n++] = result[i];
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * the element's whole hash as one long
+     */
+    private static long key(HashIter h) {
+        return h.h1() ^ Long.rotateLeft(h.h2(), 32);
+    }
+
+    /**
+     * a slot in the i'th third of the table
+     */
+    private int slot(long hash, int i) {
+        long r = Long.rotateLeft(hash, 21 * i) & 0xffffffffL;
+        return (int) ((r * blockLength) >>> 32) + i * blockLength;
+    }
+
+    private static int fingerprint(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,36 @@
+package ca.hullabaloo.data.bloom;
+
+import junit.framework.TestCase;
+
+public class XorFilterTest extends TestCase {
+    public void testEmpty() {
+        XorFilter<String> f = new XorFilter<String>(new JavaObjectHash<String>(), new String[0]);
+        assertEquals(0, f.size());
+        assertFalse(f.probablyContains("x"));
+    }
+
+    public void testContainsAllKeys() {
+        String[] keys = {"foo", "bar", "baz", "foo"};
+        XorFilter<String> f = new XorFilter<String>(new JavaObjectHash<String>(), keys);
+        assertEquals(3, f.size());
+        for (String k : keys)
+            assertTrue(f.probablyContains(k));
+    }
+
+    public void testFalsePositiveRate() {
+        int n = 100 * 1000;
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = i;
+        XorFilter<Integer> f = new XorFilter<Integer>(new JavaObjectHash<Integer>(), keys);
+        for (int i = 0; i < n; i++)
+            assertTrue(f.probablyContains(i));
+        int falsePositives = 0;
+        for (int i = n; i < 11 * n; i++)
+            if (f.probablyContains(i)) falsePositives++;
+        double fpp = falsePositives / (10.0 * n);
+        // 1/256
+        assertEquals(0.0039, fpp, 0.001);
+        assertEquals(9.84, (double) f.bitSize() / n, 0.01);
+    }
+}
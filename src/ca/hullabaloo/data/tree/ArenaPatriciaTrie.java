@@ -0,0 +1,482 @@
+package ca.hullabaloo.data.tree;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A radix tree like {@link PatriciaTrie}, laid out for footprint.  Edges aren't arrays of
+ * their own but {@code (offset, length)} slices of one shared, growable byte arena, so a
+ * node is a single small object: inserting copies only the new key's tail into the
+ * arena, and splitting an edge just divides its slice.
+ * <p/>
+ * Children are kept sorted by unsigned byte in arrays that grow by half, up to 48,
+ * and beyond that indexed directly by byte.  Removing keys leaves dead bytes in the
+ * arena, which are reclaimed when it would otherwise grow, or by {@link #compact}.
+ * Keys are limited to 4MB.
+ */
+public class ArenaPatriciaTrie<V> {
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY = {};
+    private static final Node[] NO_CHILDREN = {};
+    private static final int SORTED_MAX = 48;
+    private static final int DIRECT = 256;
+    /**
+     * a node's edge length shares an int with its child count, which takes the low bits
+     */
+    private static final int COUNT_BITS = 9;
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+    private static final int MAX_KEY = Integer.MAX_VALUE >>> COUNT_BITS;
+
+    private final Node root = new Node();
+    private byte[] arena = new byte[64];
+    private int arenaUsed;
+    /**
+     * bytes in {@code arena[0, arenaUsed)} that no edge refers to any more
+     */
+    private int garbage;
+    private int size;
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores {@code value} under {@code key}; storing null removes the key
+     */
+    public void put(String key, V value) {
+        byte[] bytes = key.getBytes(utf8);
+        store(bytes, 0, bytes.length, value);
+    }
+
+    /**
+     * Stores under the key {@code key[offset, offset + length)}, which is copied as needed
+     */
+    public void put(byte[] key, int offset, int length, V value) {
+        PatriciaTrie.checkSlice(key, offset, length);
+        store(key, offset, offset + length, value);
+    }
+
+    public Object get(String key) {
+        return get((CharSequence) key);
+    }
+
+    /**
+     * Looks up the UTF-8 encoding of {@code key}, encoding as it goes; allocates nothing
+     */
+    public Object get(CharSequence key) {
+        Node n = find(key);
+        return n == null ? null : n.value;
+    }
+
+    public Object get(byte[] key, int offset, int length) {
+        PatriciaTrie.checkSlice(key, offset, length);
+        Node n = find(key, offset, offset + length);
+        return n == null ? null : n.value;
+    }
+
+    /**
+     * Removes {@code key}, merging and shrinking the nodes it leaves behind
+     *
+     * @return the value it had, or null
+     */
+    public Object remove(String key) {
+        byte[] bytes = key.getBytes(utf8);
+        return delete(bytes, 0, bytes.length);
+    }
+
+    public Object remove(byte[] key, int offset, int length) {
+        PatriciaTrie.checkSlice(key, offset, length);
+        return delete(key, offset, offset + length);
+    }
+
+    /**
+     * Rewrites the arena without dead bytes or spare room, and trims every node's
+     * children to size; worth calling once a trie is loaded
+     */
+    public void compact() {
+        rewrite(0, true);
+    }
+
+    /**
+     * bytes of the arena in use, including garbage
+     */
+    int arenaSize() {
+        return arenaUsed;
+    }
+
+    private void store(byte[] key, int offset, int end, V value) {
+        if (value == null) {
+            delete(key, offset, end);
+            return;
+        }
+        if (end - offset > MAX_KEY)
+            throw new IllegalArgumentException("key too long:" + (end - offset));
+        Node n = insert(key, offset, end);
+        if (n.value == null)
+            size++;
+        n.value = value;
+    }
+
+    private Node insert(byte[] key, int consumed, int end) {
+        Node current = root;
+        int edgeConsumed = 0;
+        while (true) {
+            // match as much as you can from the current edge
+            byte[] a = arena;
+            for (int edgeLen = current.edgeLength(), at = current.offset;
+                 edgeConsumed < edgeLen && consumed < end && a[at + edgeConsumed] == key[consumed];
+                 edgeConsumed++, consumed++) {
+            }
+
+            if (edgeConsumed < current.edgeLength()) {
+                split(current, edgeConsumed);
+                return consumed == end ? current : addLeaf(current, key, consumed, end);
+            }
+            if (consumed == end)
+                return current;
+            Node child = current.child(key[consumed]);
+            if (child == null)
+                return addLeaf(current, key, consumed, end);
+            current = child;
+            edgeConsumed = 1;
+            consumed++;
+        }
+    }
+
+    /**
+     * Moves the edge from {@code at}, the value and the children into a new node,
+     * which becomes {@code n}'s only child; no bytes are copied
+     */
+    private void split(Node n, int at) {
+        Node tail = new Node();
+        tail.offset = n.offset + at;
+        tail.lengthAndCount = (n.edgeLength() - at) << COUNT_BITS | n.count();
+        tail.value = n.value;
+        tail.keys = n.keys;
+        tail.children = n.children;
+
+        n.lengthAndCount = at << COUNT_BITS;
+        n.value = null;
+        n.keys = EMPTY;
+        n.children = NO_CHILDREN;
+        n.addChild(tail, arena[tail.offset]);
+    }
+
+    private Node addLeaf(Node parent, byte[] key, int from, int end) {
+        Node leaf = new Node();
+        leaf.offset = append(key, from, end - from);
+        leaf.lengthAndCount = (end - from) << COUNT_BITS;
+        parent.addChild(leaf, key[from]);
+        return leaf;
+    }
+
+    private Node find(byte[] key, int consumed, int end) {
+        Node current = root;
+        byte[] a = arena;
+        while (consumed < end) {
+            current = current.child(key[consumed]);
+            if (current == null)
+                return null;
+            int edgeLen = current.edgeLength();
+            if (end - consumed < edgeLen)
+                return null;
+            for (int i = 1, at = current.offset; i < edgeLen; i++)
+                if (a[at + i] != key[consumed + i])
+                    return null;
+            consumed += edgeLen;
+        }
+        return current;
+    }
+
+    /**
+     * {@link #find(byte[], int, int)} over the UTF-8 encoding of {@code key}, a byte at a
+     * time; see {@link PatriciaTrie#utf8}
+     */
+    private Node find(CharSequence key) {
+        Node current = root;
+        byte[] a = arena;
+        // the rest of the current edge is a[edgeAt, edgeEnd)
+        int edgeAt = 0, edgeEnd = 0;
+        int chars = 0, charEnd = key.length();
+        int encoded = 0, pending = 0;
+        while (true) {
+            if (pending == 0) {
+                if (chars == charEnd)
+                    return edgeAt == edgeEnd ? current : null;
+                long e = PatriciaTrie.utf8(key, chars);
+                encoded = (int) e;
+                pending = (int) (e >>> 32) & 0xff;
+                chars += (int) (e >>> 40);
+            }
+            byte b = (byte) encoded;
+            encoded >>>= 8;
+            pending--;
+            if (edgeAt < edgeEnd) {
+                if (a[edgeAt++] != b)
+                    return null;
+            } else {
+                current = current.child(b);
+                if (current == null)
+                    return null;
+                edgeAt = current.offset + 1;
+                edgeEnd = current.offset + current.edgeLength();
+            }
+        }
+    }
+
+    private Object delete(byte[] key, int offset, int end) {
+        Node parent = null, current = root;
+        for (int consumed = offset; consumed < end; ) {
+            Node child = current.child(key[consumed]);
+            if (child == null)
+                return null;
+            int edgeLen = child.edgeLength();
+            if (end - consumed < edgeLen)
+                return null;
+            for (int i = 1; i < edgeLen; i++)
+                if (arena[child.offset + i] != key[consumed + i])
+                    return null;
+            parent = current;
+            current = child;
+            consumed += edgeLen;
+        }
+        Object old = current.value;
+        if (old == null)
+            return null;
+
+        current.value = null;
+        size--;
+        if (current != root && current.count() == 0) {
+            garbage += current.edgeLength();
+            parent.removeChild(arena[current.offset]);
+            current = parent;
+        }
+        // a node without a value only needs to exist where the path forks
+        if (current != root && current.value == null && current.count() == 1)
+            merge(current);
+        return old;
+    }
+
+    /**
+     * Folds {@code n}'s only child into it; the reverse of {@link #split}.  Edges that were
+     * split from one another are still next to each other in the arena and just join up.
+     */
+    private void merge(Node n) {
+        Node child = n.onlyChild();
+        int length = n.edgeLength(), childLength = child.edgeLength();
+        int offset = n.offset;
+        if (offset + length != child.offset) {
+            byte[] joined = new byte[length + childLength];
+            System.arraycopy(arena, n.offset, joined, 0, length);
+            System.arraycopy(arena, child.offset, joined, length, childLength);
+            offset = append(joined, 0, joined.length);
+            garbage += joined.length;
+        }
+        n.offset = offset;
+        n.lengthAndCount = (length + childLength) << COUNT_BITS | child.count();
+        n.value = child.value;
+        n.keys = child.keys;
+        n.children = child.children;
+    }
+
+    /**
+     * Copies bytes to the end of the arena, making room first
+     *
+     * @return where they start
+     */
+    private int append(byte[] src, int from, int length) {
+        if (length > arena.length - arenaUsed) {
+            if (garbage > arenaUsed / 2)
+                rewrite(length, false);
+            if (length > arena.length - arenaUsed) {
+                long grown = Math.max(2L * arena.length, (long) arenaUsed + length);
+                if (grown > Integer.MAX_VALUE - 8) {
+                    if ((long) arenaUsed + length > Integer.MAX_VALUE - 8)
+                        throw new IllegalStateException("arena full:" + arenaUsed);
+                    grown = Integer.MAX_VALUE - 8;
+                }
+                arena = Arrays.copyOf(arena, (int) grown);
+            }
+        }
+        System.arraycopy(src, from, arena, arenaUsed, length);
+        int at = arenaUsed;
+        arenaUsed += length;
+        return at;
+    }
+
+    /**
+     * Copies every live edge into a new arena, depth first so that a node's first child
+     * follows its edge, leaving room for {@code extra} more bytes
+     */
+    private void rewrite(int extra, boolean trim) {
+        int live = arenaUsed - garbage;
+        byte[] to = new byte[trim ? live + extra : Math.max(64, 2 * (live + extra))];
+        int used = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+            int length = n.edgeLength();
+            System.arraycopy(arena, n.offset, to, used, length);
+            n.offset = used;
+            used += length;
+            if (trim)
+                n.trim();
+            Node[] c = n.children;
+            for (int i = c.length - 1; i >= 0; i--)
+                if (c[i] != null) stack.push(c[i]);
+        }
+        arena = to;
+        arenaUsed = used;
+        garbage = 0;
+    }
+
+    private static final class Node {
+        /**
+         * where the edge starts in the arena
+         */
+        private int offset;
+        private int lengthAndCount;
+        private Object value;
+        /**
+         * Children, keyed by the first byte of their edge: while there are up to
+         * {@link #SORTED_MAX}, {@code keys[0, count)} are sorted unsigned alongside them;
+         * beyond that, {@code children} has {@link #DIRECT} entries indexed by byte.
+         */
+        private byte[] keys = EMPTY;
+        private Node[] children = NO_CHILDREN;
+
+        int edgeLength() {
+            return lengthAndCount >>> COUNT_BITS;
+        }
+
+        int count() {
+            return lengthAndCount & COUNT_MASK;
+        }
+
+        private void setCount(int count) {
+            lengthAndCount = lengthAndCount & ~COUNT_MASK | count;
+        }
+
+        Node child(byte b) {
+            Node[] c = children;
+            if (c.length == DIRECT)
+                return c[b & 0xff];
+            int i = indexOf(b);
+            return i < 0 ? null : c[i];
+        }
+
+        Node onlyChild() {
+            assert count() == 1;
+            for (Node c : children)
+                if (c != null) return c;
+            throw new AssertionError();
+        }
+
+        /**
+         * Position of {@code b} among the sorted keys, or {@code -(insertion point) - 1}
+         */
+        private int indexOf(byte b) {
+            byte[] k = keys;
+            int target = b & 0xff;
+            int lo = 0, hi = count() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int key = k[mid] & 0xff;
+                if (key < target) lo = mid + 1;
+                else if (key > target) hi = mid - 1;
+                else return mid;
+            }
+            return -lo - 1;
+        }
+
+        /**
+         * Adds a new child, whose edge starts with {@code b}
+         */
+        void addChild(Node n, byte b) {
+            int count = count();
+            if (children.length != DIRECT && count == SORTED_MAX)
+                toDirect();
+            if (children.length == DIRECT) {
+                children[b & 0xff] = n;
+            } else {
+                int i = -indexOf(b) - 1;
+                assert i >= 0 : "duplicate child";
+                if (count == children.length) {
+                    int grown = Math.min(SORTED_MAX, Math.max(2, count + (count >> 1)));
+                    keys = Arrays.copyOf(keys, grown);
+                    children = Arrays.copyOf(children, grown);
+                }
+                System.arraycopy(keys, i, keys, i + 1, count - i);
+                System.arraycopy(children, i, children, i + 1, count - i);
+                keys[i] = b;
+                children[i] = n;
+            }
+            setCount(count + 1);
+        }
+
+        void removeChild(byte b) {
+            int count = count() - 1;
+            if (children.length == DIRECT) {
+                children[b & 0xff] = null;
+                setCount(count);
+                // well below the switch point, so removing and re-adding there doesn't copy
+                if (count <= SORTED_MAX * 3 / 4)
+                    toSorted();
+                return;
+            }
+            int i = indexOf(b);
+            assert i >= 0 : "no such child";
+            System.arraycopy(keys, i + 1, keys, i, count - i);
+            System.arraycopy(children, i + 1, children, i, count - i);
+            children[count] = null;
+            setCount(count);
+            if (count <= children.length / 4)
+                trim();
+        }
+
+        private void toDirect() {
+            Node[] direct = new Node[DIRECT];
+            for (int i = 0, n = count(); i < n; i++)
+                direct[keys[i] & 0xff] = children[i];
+            keys = EMPTY;
+            children = direct;
+        }
+
+        private void toSorted() {
+            int count = count();
+            byte[] sortedKeys = new byte[count];
+            Node[] sorted = new Node[count];
+            for (int b = 0, i = 0; b < DIRECT; b++) {
+                if (children[b] != null) {
+                    sortedKeys[i] = (byte) b;
+                    sorted[i++] = children[b];
+                }
+            }
+            keys = sortedKeys;
+            children = sorted;
+        }
+
+        /**
+         * Sizes sorted children exactly
+         */
+        void trim() {
+            int count = count();
+            if (children.length == DIRECT || children.length == count)
+                return;
+            if (count == 0) {
+                keys = EMPTY;
+                children = NO_CHILDREN;
+            } else {
+                keys = Arrays.copyOf(keys, count);
+                children = Arrays.copyOf(children, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ca.hullabaloo.data.tree;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ArenaPatriciaTrieTest extends TestCase {
+    private ArenaPatriciaTrie<Integer> trie = new ArenaPatriciaTrie<Integer>();
+
+    public void testPutAndGet() throws Exception {
+        String[] dat = {"BAC", "AB", "AX", "BACARDI", "BAD", "B", ""};
+        for (int i = 0; i < dat.length; i++) {
+            trie.put(dat[i], i);
+            for (int j = 0; j <= i; j++)
+                assertEquals(j, trie.get(dat[j]));
+        }
+        assertNull(trie.get("BA"));
+        assertNull(trie.get("BACA"));
+        assertNull(trie.get("C"));
+        assertEquals(1, trie.get("xxAB".getBytes("UTF-8"), 2, 2));
+        assertEquals(dat.length, trie.size());
+    }
+
+    public void testSplittingCopiesNothing() {
+        trie.put("abcdef", 1);
+        trie.put("abc", 2);
+        trie.put("abcdxy", 3);
+        // only "abcdef" and the tail "xy" were ever copied in
+        assertEquals(8, trie.arenaSize());
+        assertEquals(1, trie.get("abcdef"));
+        assertEquals(2, trie.get("abc"));
+        assertEquals(3, trie.get("abcdxy"));
+    }
+
+    public void testMergingSplitEdgesCopiesNothing() {
+        trie.put("abcdef", 1);
+        trie.put("abc", 2);
+        trie.remove("abc");
+        assertEquals(6, trie.arenaSize());
+        assertEquals(1, trie.get("abcdef"));
+        assertNull(trie.get("abc"));
+    }
+
+    public void testCharSequencesMatchTheirUtf8() {
+        String[] keys = {"plain", "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00 smile", "caf", "\u00e9t\u00e9"};
+        for (int i = 0; i < keys.length; i++)
+            trie.put(keys[i], i);
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(i, trie.get(new StringBuilder(keys[i])));
+        assertNull(trie.get(new StringBuilder("caf\u00e8")));
+        assertNull(trie.get(new StringBuilder("\u4e2d")));
+        assertNull(trie.get(new StringBuilder("plainer")));
+    }
+
+    public void testNodesGrowAndShrinkThroughEveryLayout() {
+        for (char c = 1; c < 256; c++)
+            trie.put("x" + (char) (c + 0x100), (int) c);
+        for (char c = 1; c < 256; c++)
+            assertEquals((int) c, trie.get("x" + (char) (c + 0x100)));
+        for (char c = 255; c > 0; c--) {
+            assertEquals((int) c, trie.remove("x" + (char) (c + 0x100)));
+            for (char d = 1; d < c; d++)
+                assertEquals((int) d, trie.get("x" + (char) (d + 0x100)));
+        }
+        assertTrue(trie.isEmpty());
+    }
+
+    public void testRandomPutsAndRemovesWithCompaction() {
+        Random r = new Random(5);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int op = 0; op < 50000; op++) {
+            String k = Long.toString(r.nextInt(5000) * 7919L, 3 + r.nextInt(3));
+            if (r.nextInt(3) == 0) {
+                assertEquals(expected.remove(k), trie.remove(k));
+            } else {
+                expected.put(k, op);
+                trie.put(k, op);
+            }
+            if (op % 10000 == 0)
+                trie.compact();
+        }
+        assertEquals(expected.size(), trie.size());
+        for (Map.Entry<String, Integer> e : expected.entrySet())
+            assertEquals(e.getValue(), trie.get(e.getKey()));
+        int before = trie.arenaSize();
+        trie.compact();
+        assertTrue(trie.arenaSize() <= before);
+        for (Map.Entry<String, Integer> e : expected.entrySet())
+            assertEquals(e.getValue(), trie.get(e.getKey()));
+    }
+}
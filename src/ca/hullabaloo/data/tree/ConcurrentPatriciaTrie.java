@@ -0,0 +1,77 @@
+package ca.hullabaloo.data.tree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link PatriciaTrie} that readers may use from any number of threads without
+ * locking, while writers take turns.  Writers copy the path from the root to the node
+ * they change and publish the result through a volatile root, so a reader sees either
+ * all of a write or none of it, and a {@link #cursor} walks a consistent snapshot.
+ * <p/>
+ * Writes cost a copy of each node on the path; reads cost the same as the plain trie.
+ */
+public class ConcurrentPatriciaTrie<V> extends PatriciaTrie<V> {
+    /**
+     * the published tree; the base class's own field keeps only the empty first root
+     */
+    private volatile Node root;
+    /**
+     * the base class's count as of the last publish
+     */
+    private volatile int size;
+
+    public ConcurrentPatriciaTrie() {
+        this(new Node());
+    }
+
+    private ConcurrentPatriciaTrie(Node root) {
+        super(true, root);
+        this.root = root;
+    }
+
+    @Override
+    Node root() {
+        return root;
+    }
+
+    @Override
+    void publish(Node top) {
+        size = super.size();
+        root = top;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void put(String key, V value) {
+        super.put(key, value);
+    }
+
+    @Override
+    public synchronized void put(CharSequence key, V value) {
+        super.put(key, value);
+    }
+
+    @Override
+    public synchronized void put(byte[] key, int offset, int length, V value) {
+        super.put(key, offset, length, value);
+    }
+
+    @Override
+    public synchronized void put(ByteBuffer key, V value) {
+        super.put(key, value);
+    }
+
+    @Override
+    public synchronized Object remove(String key) {
+        return super.remove(key);
+    }
+
+    @Override
+    public synchronized Object remove(byte[] key, int offset, int length) {
+        return super.remove(key, offset, length);
+    }
+}
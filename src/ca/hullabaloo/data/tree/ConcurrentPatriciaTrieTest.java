@@ -0,0 +1,91 @@
+package ca.hullabaloo.data.tree;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentPatriciaTrieTest extends TestCase {
+    private ConcurrentPatriciaTrie<Integer> trie = new ConcurrentPatriciaTrie<Integer>();
+
+    public void testPutAndGet() {
+        assertTrue(trie.isEmpty());
+        String[] dat = {"BAC", "AB", "AX", "BACARDI", "BAD", "B"};
+        for (int i = 0; i < dat.length; i++) {
+            trie.put(dat[i], i);
+            for (int j = 0; j <= i; j++)
+                assertEquals(j, trie.get(dat[j]));
+        }
+        trie.put(new StringBuilder("AB"), 10);
+        assertEquals(10, trie.get("AB"));
+        assertFalse(trie.isEmpty());
+    }
+
+    public void testCursorSeesASnapshot() {
+        trie.put("a", 1);
+        trie.put("c", 3);
+        PatriciaTrie<Integer>.Cursor c = trie.cursor();
+        trie.put("b", 2);
+        trie.put("ab", 4);
+        trie.put("a", 5);
+        List<String> keys = new ArrayList<String>();
+        List<Integer> values = new ArrayList<Integer>();
+        while (c.next()) {
+            keys.add(c.key());
+            values.add(c.value());
+        }
+        assertEquals(Arrays.asList("a", "c"), keys);
+        assertEquals(Arrays.asList(1, 3), values);
+    }
+
+    public void testRemoveLeavesSnapshotsAlone() {
+        trie.put("a", 1);
+        trie.put("ab", 2);
+        trie.put("abc", 3);
+        PatriciaTrie<Integer>.Cursor c = trie.cursor();
+        assertEquals(2, trie.remove("ab"));
+        assertEquals(1, trie.remove("a"));
+        assertNull(trie.get("ab"));
+        assertEquals(3, trie.get("abc"));
+        assertEquals(1, trie.size());
+        List<String> keys = new ArrayList<String>();
+        while (c.next())
+            keys.add(c.key());
+        assertEquals(Arrays.asList("a", "ab", "abc"), keys);
+    }
+
+    public void testReadersNeverMissAWrittenKey() throws Exception {
+        final int n = 20 * 1000;
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                public void run() {
+                    while (written.get() < n && failure.get() == null) {
+                        int upTo = written.get();
+                        for (int i = 0; i < upTo; i += 7) {
+                            if (!Integer.valueOf(i).equals(trie.get(key(i))))
+                                failure.set("missing " + key(i));
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (int i = 0; i < n; i++) {
+            trie.put(key(i), i);
+            written.set(i + 1);
+        }
+        for (Thread t : readers)
+            t.join();
+        assertNull(failure.get());
+    }
+
+    private static String key(int i) {
+        return Integer.toString(i * 7919, 36);
+    }
+}
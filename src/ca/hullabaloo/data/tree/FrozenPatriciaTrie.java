@@ -0,0 +1,379 @@
+package ca.hullabaloo.data.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A read-only {@link PatriciaTrie}, compiled by {@link PatriciaTrie#freeze} into one
+ * buffer: node records that refer to their children by offset, and all edges
+ * concatenated after them.  It can be {@linkplain #write written} to a file and
+ * {@linkplain #open mapped} back without reading or rebuilding anything.
+ * <p/>
+ * A node record is: edge offset, edge length, value index (-1 for none) and child
+ * count as ints, then the children's first bytes in unsigned order padded to a
+ * multiple of 4, then the children's record offsets.  Nodes are laid out breadth
+ * first, root first.
+ * <p/>
+ * File layout (big endian): magic, version, node bytes, edge bytes, value count, value
+ * bytes; the nodes; the edges; the values, as encoded by a {@link Codec}; and then an
+ * offset for each value, plus one for the end.
+ * <p/>
+ * Safe for any number of concurrent readers.
+ */
+public class FrozenPatriciaTrie<V> {
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x50545246; // PTRF
+    private static final int VERSION = 1;
+    private static final int HEADER = 6 * 4;
+    private static final int NODE_HEADER = 4 * 4;
+    private static final int NO_VALUE = -1;
+
+    /**
+     * Turns values into bytes for {@link #write}, and back for {@link #open}
+     */
+    public interface Codec<V> {
+        byte[] encode(V value);
+
+        /**
+         * Decodes {@code length} bytes at {@code offset}, without moving the buffer's position
+         */
+        V decode(ByteBuffer buf, int offset, int length);
+    }
+
+    public static final Codec<String> STRINGS = new Codec<String>() {
+        public byte[] encode(String value) {
+            return value.getBytes(utf8);
+        }
+
+        public String decode(ByteBuffer buf, int offset, int length) {
+            byte[] b = new byte[length];
+            for (int i = 0; i < length; i++)
+                b[i] = buf.get(offset + i);
+            return new String(b, utf8);
+        }
+    };
+
+    public static final Codec<Integer> INTEGERS = new Codec<Integer>() {
+        public byte[] encode(Integer value) {
+            return ByteBuffer.allocate(4).putInt(value).array();
+        }
+
+        public Integer decode(ByteBuffer buf, int offset, int length) {
+            return buf.getInt(offset);
+        }
+    };
+
+    private final ByteBuffer buf;
+    private final int nodes;
+    private final int edges;
+    private final int size;
+    // values are either on the heap, or encoded in the buffer
+    private final Object[] values;
+    private final Codec<V> codec;
+    private final int valueBytes;
+    private final int valueOffsets;
+
+    private FrozenPatriciaTrie(ByteBuffer buf, int nodes, int edges, Object[] values) {
+        this.buf = buf;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.size = values.length;
+        this.values = values;
+        this.codec = null;
+        this.valueBytes = this.valueOffsets = -1;
+    }
+
+    private FrozenPatriciaTrie(ByteBuffer buf, int nodes, int edges, int size, Codec<V> codec, int valueBytes, int valueOffsets) {
+        this.buf = buf;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.size = size;
+        this.values = null;
+        this.codec = codec;
+        this.valueBytes = valueBytes;
+        this.valueOffsets = valueOffsets;
+    }
+
+    /**
+     * Number of keys with a value
+     */
+    public int size() {
+        return size;
+    }
+
+    public V get(String key) {
+        return get((CharSequence) key);
+    }
+
+    /**
+     * Looks up the UTF-8 encoding of {@code key}, encoding as it goes
+     */
+    public V get(CharSequence key) {
+        int n = nodes, edgeConsumed = 0;
+        int chars = 0, charEnd = key.length();
+        // the current character's bytes not yet matched, lowest first
+        int encoded = 0, pending = 0;
+        while (true) {
+            int edgeStart = edges + buf.getInt(n), edgeLen = buf.getInt(n + 4);
+            for (; edgeConsumed < edgeLen; edgeConsumed++) {
+                if (pending == 0) {
+                    if (chars == charEnd)
+                        return null;
+                    long e = PatriciaTrie.utf8(key, chars);
+                    encoded = (int) e;
+                    pending = (int) (e >>> 32) & 0xff;
+                    chars += (int) (e >>> 40);
+                }
+                if ((byte) encoded != buf.get(edgeStart + edgeConsumed))
+                    return null;
+                encoded >>>= 8;
+                pending--;
+            }
+            if (pending == 0) {
+                if (chars == charEnd)
+                    return nodeValue(n);
+                long e = PatriciaTrie.utf8(key, chars);
+                encoded = (int) e;
+                pending = (int) (e >>> 32) & 0xff;
+                chars += (int) (e >>> 40);
+            }
+            n = child(n, (byte) encoded);
+            if (n < 0)
+                return null;
+            encoded >>>= 8;
+            pending--;
+            edgeConsumed = 1;
+        }
+    }
+
+    public V get(byte[] key, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > key.length)
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + " of " + key.length);
+        int n = nodes, edgeConsumed = 0;
+        for (int keyConsumed = offset, keyEnd = offset + length; ; ) {
+            int edgeStart = edges + buf.getInt(n), edgeLen = buf.getInt(n + 4);
+            for (; edgeConsumed < edgeLen && keyConsumed < keyEnd; edgeConsumed++, keyConsumed++) {
+                if (key[keyConsumed] != buf.get(edgeStart + edgeConsumed))
+                    return null;
+            }
+            if (edgeConsumed < edgeLen)
+                return null;
+            if (keyConsumed == keyEnd)
+                return nodeValue(n);
+            n = child(n, key[keyConsumed]);
+            if (n < 0)
+                return null;
+            edgeConsumed = 1;
+            keyConsumed++;
+        }
+    }
+
+    /**
+     * The record of node {@code n}'s child starting with {@code b}, or -1
+     */
+    private int child(int n, byte b) {
+        int count = buf.getInt(n + 12);
+        int keys = n + NODE_HEADER;
+        int offsets = keys + align(count);
+        int target = b & 0xff;
+        int lo = 0, hi = count - 1;
+        if (count == 256) {
+            lo = hi = target;
+        }
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int key = buf.get(keys + mid) & 0xff;
+            if (key < target) lo = mid + 1;
+            else if (key > target) hi = mid - 1;
+            else return nodes + buf.getInt(offsets + 4 * mid);
+        }
+        return -1;
+    }
+
+    private V nodeValue(int n) {
+        int index = buf.getInt(n + 8);
+        return index == NO_VALUE ? null : value(index);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private V value(int index) {
+        if (values != null)
+            return (V) values[index];
+        int start = buf.getInt(valueOffsets + 4 * index);
+        int end = buf.getInt(valueOffsets + 4 * index + 4);
+        return codec.decode(buf, valueBytes + start, end - start);
+    }
+
+    private static int align(int count) {
+        return (count + 3) & ~3;
+    }
+
+    /**
+     * Writes this trie to {@code file}, for {@link #open}
+     */
+    public void write(File file, Codec<V> codec) throws IOException {
+        int nodeBytes = edges - nodes;
+        int edgeBytes = edgesEnd() - edges;
+        int[] offsets = new int[size + 1];
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < 6; i++)
+                out.writeInt(0);
+            ByteBuffer b = buf.duplicate();
+            b.limit(edges + edgeBytes).position(nodes);
+            byte[] chunk = new byte[8192];
+            while (b.hasRemaining()) {
+                int n = Math.min(chunk.length, b.remaining());
+                b.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+            for (int i = 0; i < size; i++) {
+                byte[] v = codec.encode(value(i));
+                out.write(v);
+                offsets[i + 1] = offsets[i] + v.length;
+            }
+            for (int o : offsets)
+                out.writeInt(o);
+        } finally {
+            out.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(nodeBytes);
+            raf.writeInt(edgeBytes);
+            raf.writeInt(size);
+            raf.writeInt(offsets[size]);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int edgesEnd() {
+        return values != null ? buf.limit() : valueBytes;
+    }
+
+    /**
+     * Maps a trie written by {@link #write} read-only.  Nothing is read up front; values
+     * are decoded by {@code codec} each time they're looked up.
+     */
+    public static <V> FrozenPatriciaTrie<V> open(File file, Codec<V> codec) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER || length > Integer.MAX_VALUE)
+                throw new IOException("not a frozen trie: " + file);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buf.getInt() != MAGIC)
+                throw new IOException("not a frozen trie: " + file);
+            int version = buf.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported frozen trie version " + version + ": " + file);
+            int nodeBytes = buf.getInt(), edgeBytes = buf.getInt(), size = buf.getInt(), valueLength = buf.getInt();
+            // checked one by one, so that a negative field can't make up for a bigger one
+            if (nodeBytes < 0 || edgeBytes < 0 || size < 0 || valueLength < 0)
+                throw new IOException("not a frozen trie: " + file);
+            long expected = HEADER + (long) nodeBytes + edgeBytes + valueLength + 4L * size + 4;
+            if (length != expected)
+                throw new IOException("truncated frozen trie: " + file);
+            int edges = HEADER + nodeBytes;
+            int valueBytes = edges + edgeBytes;
+            return new FrozenPatriciaTrie<V>(buf, HEADER, edges, size, codec, valueBytes, valueBytes + valueLength);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Lays out nodes in the order they're {@linkplain #reserve reserved}, which must be
+     * the order they're {@linkplain #node written}
+     */
+    static class Builder {
+        private byte[] nodes = new byte[1024];
+        private byte[] edges = new byte[1024];
+        private int edgesLength;
+        private Object[] values = new Object[16];
+        private int size;
+        private int reserved;
+        private int current;
+        private int currentCount;
+        private int written;
+        private int child;
+
+        /**
+         * Makes room for a node with {@code children} children
+         *
+         * @return its record offset
+         */
+        int reserve(int children) {
+            int offset = reserved;
+            long end = (long) reserved + NODE_HEADER + align(children) + 4L * children;
+            if (end > Integer.MAX_VALUE)
+                throw new IllegalStateException("trie too large to freeze");
+            reserved = (int) end;
+            if (reserved > nodes.length)
+                nodes = Arrays.copyOf(nodes, (int) Math.min(Integer.MAX_VALUE, Math.max(reserved, 2L * nodes.length)));
+            return offset;
+        }
+
+        /**
+         * Writes the next reserved node; its children follow through {@link #child}
+         */
+        void node(byte[] edge, Object value, int children) {
+            if ((long) edgesLength + edge.length > Integer.MAX_VALUE)
+                throw new IllegalStateException("trie too large to freeze");
+            if (edgesLength + edge.length > edges.length)
+                edges = Arrays.copyOf(edges, (int) Math.min(Integer.MAX_VALUE, Math.max(edgesLength + edge.length, 2L * edges.length)));
+            System.arraycopy(edge, 0, edges, edgesLength, edge.length);
+            int index = NO_VALUE;
+            if (value != null) {
+                if (size == values.length)
+                    values = Arrays.copyOf(values, size * 2);
+                values[size] = value;
+                index = size++;
+            }
+            current = written;
+            putInt(current, edgesLength);
+            putInt(current + 4, edge.length);
+            putInt(current + 8, index);
+            putInt(current + 12, children);
+            edgesLength += edge.length;
+            currentCount = children;
+            written += NODE_HEADER + align(children) + 4 * children;
+            child = 0;
+        }
+
+        /**
+         * Records the current node's next child, in unsigned byte order
+         */
+        void child(byte key, int offset) {
+            nodes[current + NODE_HEADER + child] = key;
+            putInt(current + NODE_HEADER + align(currentCount) + 4 * child, offset);
+            child++;
+        }
+
+        private void putInt(int at, int v) {
+            nodes[at] = (byte) (v >>> 24);
+            nodes[at + 1] = (byte) (v >>> 16);
+            nodes[at + 2] = (byte) (v >>> 8);
+            nodes[at + 3] = (byte) v;
+        }
+
+        <V> FrozenPatriciaTrie<V> build() {
+            assert written == reserved;
+            ByteBuffer buf = ByteBuffer.allocate(written + edgesLength);
+            buf.put(nodes, 0, written).put(edges, 0, edgesLength);
+            return new FrozenPatriciaTrie<V>(buf, 0, written, Arrays.copyOf(values, size));
+        }
+    }
+}
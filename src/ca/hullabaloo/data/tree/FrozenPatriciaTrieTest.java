@@ -0,0 +1,118 @@
+package ca.hullabaloo.data.tree;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+public class FrozenPatriciaTrieTest extends TestCase {
+    private PatriciaTrie<String> trie = new PatriciaTrie<String>();
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("frozen", ".trie");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        assertTrue(file.delete());
+    }
+
+    public void testEmpty() throws IOException {
+        FrozenPatriciaTrie<String> f = trie.freeze();
+        assertEquals(0, f.size());
+        assertNull(f.get("a"));
+        assertNull(f.get(""));
+        f.write(file, FrozenPatriciaTrie.STRINGS);
+        assertNull(FrozenPatriciaTrie.open(file, FrozenPatriciaTrie.STRINGS).get("a"));
+    }
+
+    public void testSameLookupsAsTheTrie() throws IOException {
+        String[] keys = {"", "BAC", "AB", "AX", "BACARDI", "BAD", "caf\u00e9", "\ud83d\ude00"};
+        for (String k : keys)
+            trie.put(k, "v" + k);
+        trie.put("BA", null);
+        FrozenPatriciaTrie<String> frozen = trie.freeze();
+        frozen.write(file, FrozenPatriciaTrie.STRINGS);
+        FrozenPatriciaTrie<String> mapped = FrozenPatriciaTrie.open(file, FrozenPatriciaTrie.STRINGS);
+        checkLookups(frozen, keys);
+        checkLookups(mapped, keys);
+    }
+
+    private void checkLookups(FrozenPatriciaTrie<String> f, String[] keys) throws IOException {
+        assertEquals(keys.length, f.size());
+        for (String k : keys) {
+            assertEquals("v" + k, f.get(k));
+            byte[] b = ("x" + k).getBytes("UTF-8");
+            assertEquals("v" + k, f.get(b, 1, b.length - 1));
+        }
+        for (String k : new String[]{"B", "BA", "A", "BACA", "BACARDIS", "caf", "z"})
+            assertNull(k, f.get(k));
+    }
+
+    public void testWideNodesAndManyKeys() throws IOException {
+        PatriciaTrie<Integer> ints = new PatriciaTrie<Integer>();
+        Random r = new Random(5);
+        String[] keys = new String[20 * 1000];
+        for (int i = 0; i < keys.length; i++) {
+            // enough distinct first characters for a directly indexed root
+            keys[i] = (char) (1 + r.nextInt(300)) + Integer.toString(r.nextInt(), 36);
+            ints.put(keys[i], i);
+        }
+        ints.freeze().write(file, FrozenPatriciaTrie.INTEGERS);
+        FrozenPatriciaTrie<Integer> f = FrozenPatriciaTrie.open(file, FrozenPatriciaTrie.INTEGERS);
+        for (String k : keys)
+            assertEquals(ints.get(k), f.get(k));
+        assertNull(f.get("\u0001"));
+    }
+
+    public void testRejectsOtherFiles() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(0x12345678);
+        raf.setLength(64);
+        raf.close();
+        try {
+            FrozenPatriciaTrie.open(file, FrozenPatriciaTrie.STRINGS);
+            fail();
+        } catch (IOException expected) {
+        }
+        trie.put("a", "b");
+        trie.freeze().write(file, FrozenPatriciaTrie.STRINGS);
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        try {
+            FrozenPatriciaTrie.open(file, FrozenPatriciaTrie.STRINGS);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testRejectsNegativeHeaderFields() throws IOException {
+        trie.put("a", "b");
+        trie.put("ab", "c");
+        trie.freeze().write(file, FrozenPatriciaTrie.STRINGS);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        int nodeBytes, edgeBytes;
+        try {
+            raf.seek(8);
+            nodeBytes = raf.readInt();
+            edgeBytes = raf.readInt();
+            // the total stays right: the nodes' bytes are counted as edges
+            raf.seek(8);
+            raf.writeInt(-8);
+            raf.writeInt(edgeBytes + nodeBytes + 8);
+        } finally {
+            raf.close();
+        }
+        try {
+            FrozenPatriciaTrie.open(file, FrozenPatriciaTrie.STRINGS);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("not a frozen trie"));
+        }
+    }
+}
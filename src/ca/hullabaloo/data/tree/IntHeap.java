@@ -4,6 +4,10 @@ import java.util.Arrays;
 
 /**
  * Binary heap for integers
+ * <p/>
+ * Subclasses can order the values some other way by overriding {@link #less}, for
+ * example to keep indexes into an array ordered by what they point at, and can
+ * track where each value sits through {@link #placed}.
  *
  * (This isn't production code; I'm just playing around)
  */
@@ -38,6 +42,7 @@ public class IntHeap {
         growIfNeeded();
         int idx = size;
         data[size++] = val;
+        placed(val, idx);
         while (idx > 0) {
             idx = swapUp(idx);
         }
@@ -49,6 +54,7 @@ public class IntHeap {
     public int remove() {
         int r = data[0];
         data[0] = data[--size];
+        if (size > 0) placed(data[0], 0);
         int idx = 0;
         while (idx < size) {
             idx = swapDown(idx);
@@ -56,13 +62,46 @@ public class IntHeap {
         return r;
     }
 
+    /**
+     * Restores heap order after the value at {@code idx} has changed how it
+     * compares, e.g. when {@link #less} looks the value up elsewhere
+     */
+    public void reorder(int idx) {
+        if (idx < 0 || idx >= size)
+            throw new IllegalArgumentException("index out of range:" + idx);
+        int up = idx;
+        while (up > 0) {
+            int next = swapUp(up);
+            if (next < 0) break;
+            up = next;
+        }
+        if (up == idx) {
+            while (idx < size) {
+                idx = swapDown(idx);
+            }
+        }
+    }
+
+    /**
+     * The order of the heap; the smallest value comes {@link #first}
+     */
+    protected boolean less(int a, int b) {
+        return a < b;
+    }
+
+    /**
+     * Called whenever {@code val} is stored at heap index {@code idx}
+     */
+    protected void placed(int val, int idx) {
+    }
+
     /**
      * pulls an item up the tree to its proper spot
      */
     private int swapUp(int ci) {
         int pi = parentIdx(ci);
         int[] x = data;
-        if (x[ci] < x[pi]) {
+        if (less(x[ci], x[pi])) {
             swap(x, ci, pi);
             return pi;
         } else {
@@ -78,24 +117,24 @@ public class IntHeap {
         int right = rightChildIdx(parent);
         int[] x = data;
         if (left < size && right < size) {
-            if (x[left] < x[right]) {
-                if (x[parent] > x[left]) {
+            if (less(x[left], x[right])) {
+                if (less(x[left], x[parent])) {
                     swap(x, parent, left);
                     return left;
                 }
             } else {
-                if (x[parent] > x[right]) {
+                if (less(x[right], x[parent])) {
                     swap(x, parent, right);
                     return right;
                 }
             }
         } else if (left < size) {
-            if (x[parent] > x[left]) {
+            if (less(x[left], x[parent])) {
                 swap(x, parent, left);
                 return left;
             }
         } else if (right < size) {
-            if (x[parent] > x[right]) {
+            if (less(x[right], x[parent])) {
                 swap(x, parent, right);
                 return right;
             }
@@ -120,9 +159,11 @@ public class IntHeap {
             data = Arrays.copyOf(data, data.length * 2);
     }
 
-    private static void swap(int x[], int a, int b) {
+    private void swap(int x[], int a, int b) {
         int t = x[a];
         x[a] = x[b];
         x[b] = t;
+        placed(x[a], a);
+        placed(x[b], b);
     }
 }
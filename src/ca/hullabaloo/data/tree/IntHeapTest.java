@@ -71,4 +71,32 @@ public class IntHeapTest extends TestCase {
         for (int val : vals)
             assertEquals(val, h.remove());
     }
+
+    public void testCustomOrderAndReorder() {
+        final int[] weights = {5, 1, 3};
+        final int[] positions = new int[3];
+        IntHeap byWeight = new IntHeap() {
+            @Override
+            protected boolean less(int a, int b) {
+                return weights[a] < weights[b];
+            }
+
+            @Override
+            protected void placed(int val, int idx) {
+                positions[val] = idx;
+            }
+        };
+        for (int i = 0; i < weights.length; i++)
+            byWeight.add(i);
+        assertEquals(1, byWeight.first());
+        assertEquals(0, positions[1]);
+        weights[1] = 10;
+        byWeight.reorder(positions[1]);
+        assertEquals(2, byWeight.first());
+        weights[0] = 0;
+        byWeight.reorder(positions[0]);
+        assertEquals(0, byWeight.remove());
+        assertEquals(2, byWeight.remove());
+        assertEquals(1, byWeight.remove());
+    }
 }
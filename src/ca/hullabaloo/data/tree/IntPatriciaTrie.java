@@ -0,0 +1,122 @@
+package ca.hullabaloo.data.tree;
+
+import java.nio.charset.Charset;
+
+/**
+ * A {@link PatriciaTrie} from strings to ints, which keeps each value in its node
+ * rather than boxing it.  Lookups take the value to return when the key is absent.
+ * <p/>
+ * {@link #getOrPut} interns: {@code getOrPut(key, size())} numbers keys in the order
+ * they're first seen.
+ */
+public class IntPatriciaTrie {
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    /**
+     * the trie's value for every key; the int is in the node
+     */
+    private static final Object PRESENT = Boolean.TRUE;
+
+    private final PatriciaTrie<Object> trie = new PatriciaTrie<Object>(false, new IntNode());
+
+    public boolean isEmpty() {
+        return trie.isEmpty();
+    }
+
+    public int size() {
+        return trie.size();
+    }
+
+    public boolean containsKey(CharSequence key) {
+        PatriciaTrie.Node n = trie.node(key);
+        return n != null && n.value != null;
+    }
+
+    public int get(String key, int defaultValue) {
+        return get((CharSequence) key, defaultValue);
+    }
+
+    /**
+     * Looks up the UTF-8 encoding of {@code key}; allocates nothing
+     */
+    public int get(CharSequence key, int defaultValue) {
+        return valueOf(trie.node(key), defaultValue);
+    }
+
+    public int get(byte[] key, int offset, int length, int defaultValue) {
+        return valueOf(trie.node(key, offset, length), defaultValue);
+    }
+
+    public void put(String key, int value) {
+        byte[] bytes = key.getBytes(utf8);
+        put(bytes, 0, bytes.length, value);
+    }
+
+    /**
+     * Stores under the key {@code key[offset, offset + length)}, which is copied as needed
+     */
+    public void put(byte[] key, int offset, int length, int value) {
+        PatriciaTrie.checkSlice(key, offset, length);
+        IntNode n = (IntNode) trie.nodeFor(key, offset, offset + length);
+        n.intValue = value;
+        trie.setValue(n, PRESENT);
+    }
+
+    /**
+     * The value for {@code key}, storing {@code value} first if there isn't one;
+     * allocates only if the key is new
+     */
+    public int getOrPut(CharSequence key, int value) {
+        PatriciaTrie.Node n = trie.node(key);
+        if (n != null && n.value != null)
+            return ((IntNode) n).intValue;
+        byte[] bytes = key.toString().getBytes(utf8);
+        return getOrPut(bytes, 0, bytes.length, value);
+    }
+
+    /**
+     * {@link #getOrPut(CharSequence, int)} for the key {@code key[offset, offset + length)},
+     * in a single descent
+     */
+    public int getOrPut(byte[] key, int offset, int length, int value) {
+        PatriciaTrie.checkSlice(key, offset, length);
+        IntNode n = (IntNode) trie.nodeFor(key, offset, offset + length);
+        if (n.value == null) {
+            n.intValue = value;
+            trie.setValue(n, PRESENT);
+        }
+        return n.intValue;
+    }
+
+    /**
+     * Removes {@code key}
+     *
+     * @return the value it had, or {@code defaultValue}
+     */
+    public int remove(String key, int defaultValue) {
+        PatriciaTrie.Node n = trie.node(key);
+        if (n == null || n.value == null)
+            return defaultValue;
+        int old = ((IntNode) n).intValue;
+        trie.remove(key);
+        return old;
+    }
+
+    private static int valueOf(PatriciaTrie.Node n, int defaultValue) {
+        return n == null || n.value == null ? defaultValue : ((IntNode) n).intValue;
+    }
+
+    private static final class IntNode extends PatriciaTrie.Node {
+        private int intValue;
+
+        @Override
+        PatriciaTrie.Node create() {
+            return new IntNode();
+        }
+
+        @Override
+        void takeValue(PatriciaTrie.Node n) {
+            super.takeValue(n);
+            intValue = ((IntNode) n).intValue;
+        }
+    }
+}
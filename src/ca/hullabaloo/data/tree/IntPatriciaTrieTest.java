@@ -0,0 +1,58 @@
+package ca.hullabaloo.data.tree;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class IntPatriciaTrieTest extends TestCase {
+    private IntPatriciaTrie trie = new IntPatriciaTrie();
+
+    public void testPutAndGet() throws Exception {
+        assertTrue(trie.isEmpty());
+        assertEquals(-1, trie.get("foo", -1));
+        trie.put("foo", 0);
+        trie.put("foobar", 2);
+        trie.put("fob", 3);
+        assertEquals(0, trie.get("foo", -1));
+        assertEquals(2, trie.get(new StringBuilder("foobar"), -1));
+        assertEquals(3, trie.get("xxfob".getBytes("UTF-8"), 2, 3, -1));
+        assertEquals(-1, trie.get("fo", -1));
+        assertEquals(3, trie.size());
+        assertTrue(trie.containsKey("foo"));
+        assertFalse(trie.containsKey("fo"));
+        trie.put("foo", 5);
+        assertEquals(5, trie.get("foo", -1));
+        assertEquals(3, trie.size());
+    }
+
+    public void testGetOrPutNumbersKeysInOrderSeen() throws Exception {
+        String[] words = {"the", "cat", "then", "the", "cat", "th", "t\u00e9"};
+        int[] ids = {0, 1, 2, 0, 1, 3, 4};
+        for (int i = 0; i < words.length; i++)
+            assertEquals(words[i], ids[i], trie.getOrPut(words[i], trie.size()));
+        byte[] cat = "cat".getBytes("UTF-8");
+        assertEquals(1, trie.getOrPut(cat, 0, cat.length, 99));
+        assertEquals(99, trie.getOrPut(cat, 0, 2, 99));
+        assertEquals(6, trie.size());
+    }
+
+    public void testValuesSurviveSplitsAndMerges() {
+        Random r = new Random(11);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int op = 0; op < 20000; op++) {
+            String k = Integer.toString(r.nextInt(2000), 7);
+            if (r.nextInt(4) == 0) {
+                Integer old = expected.remove(k);
+                assertEquals(old == null ? -1 : old, trie.remove(k, -1));
+            } else {
+                expected.put(k, op);
+                trie.put(k, op);
+            }
+        }
+        assertEquals(expected.size(), trie.size());
+        for (Map.Entry<String, Integer> e : expected.entrySet())
+            assertEquals((int) e.getValue(), trie.get(e.getKey(), -1));
+    }
+}
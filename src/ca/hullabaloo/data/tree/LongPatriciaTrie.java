@@ -0,0 +1,122 @@
+package ca.hullabaloo.data.tree;
+
+import java.nio.charset.Charset;
+
+/**
+ * A {@link PatriciaTrie} from strings to longs, which keeps each value in its node
+ * rather than boxing it.  Lookups take the value to return when the key is absent.
+ * <p/>
+ * {@link #getOrPut} interns: {@code getOrPut(key, size())} numbers keys in the order
+ * they're first seen.
+ */
+public class LongPatriciaTrie {
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    /**
+     * the trie's value for every key; the long is in the node
+     */
+    private static final Object PRESENT = Boolean.TRUE;
+
+    private final PatriciaTrie<Object> trie = new PatriciaTrie<Object>(false, new LongNode());
+
+    public boolean isEmpty() {
+        return trie.isEmpty();
+    }
+
+    public int size() {
+        return trie.size();
+    }
+
+    public boolean containsKey(CharSequence key) {
+        PatriciaTrie.Node n = trie.node(key);
+        return n != null && n.value != null;
+    }
+
+    public long get(String key, long defaultValue) {
+        return get((CharSequence) key, defaultValue);
+    }
+
+    /**
+     * Looks up the UTF-8 encoding of {@code key}; allocates nothing
+     */
+    public long get(CharSequence key, long defaultValue) {
+        return valueOf(trie.node(key), defaultValue);
+    }
+
+    public long get(byte[] key, int offset, int length, long defaultValue) {
+        return valueOf(trie.node(key, offset, length), defaultValue);
+    }
+
+    public void put(String key, long value) {
+        byte[] bytes = key.getBytes(utf8);
+        put(bytes, 0, bytes.length, value);
+    }
+
+    /**
+     * Stores under the key {@code key[offset, offset + length)}, which is copied as needed
+     */
+    public void put(byte[] key, int offset, int length, long value) {
+        PatriciaTrie.checkSlice(key, offset, length);
+        LongNode n = (LongNode) trie.nodeFor(key, offset, offset + length);
+        n.longValue = value;
+        trie.setValue(n, PRESENT);
+    }
+
+    /**
+     * The value for {@code key}, storing {@code value} first if there isn't one;
+     * allocates only if the key is new
+     */
+    public long getOrPut(CharSequence key, long value) {
+        PatriciaTrie.Node n = trie.node(key);
+        if (n != null && n.value != null)
+            return ((LongNode) n).longValue;
+        byte[] bytes = key.toString().getBytes(utf8);
+        return getOrPut(bytes, 0, bytes.length, value);
+    }
+
+    /**
+     * {@link #getOrPut(CharSequence, long)} for the key {@code key[offset, offset + length)},
+     * in a single descent
+     */
+    public long getOrPut(byte[] key, int offset, int length, long value) {
+        PatriciaTrie.checkSlice(key, offset, length);
+        LongNode n = (LongNode) trie.nodeFor(key, offset, offset + length);
+        if (n.value == null) {
+            n.longValue = value;
+            trie.setValue(n, PRESENT);
+        }
+        return n.longValue;
+    }
+
+    /**
+     * Removes {@code key}
+     *
+     * @return the value it had, or {@code defaultValue}
+     */
+    public long remove(String key, long defaultValue) {
+        PatriciaTrie.Node n = trie.node(key);
+        if (n == null || n.value == null)
+            return defaultValue;
+        long old = ((LongNode) n).longValue;
+        trie.remove(key);
+        return old;
+    }
+
+    private static long valueOf(PatriciaTrie.Node n, long defaultValue) {
+        return n == null || n.value == null ? defaultValue : ((LongNode) n).longValue;
+    }
+
+    private static final class LongNode extends PatriciaTrie.Node {
+        private long longValue;
+
+        @Override
+        PatriciaTrie.Node create() {
+            return new LongNode();
+        }
+
+        @Override
+        void takeValue(PatriciaTrie.Node n) {
+            super.takeValue(n);
+            longValue = ((LongNode) n).longValue;
+        }
+    }
+}
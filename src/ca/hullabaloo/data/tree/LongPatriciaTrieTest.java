@@ -0,0 +1,28 @@
+package ca.hullabaloo.data.tree;
+
+import junit.framework.TestCase;
+
+public class LongPatriciaTrieTest extends TestCase {
+    private LongPatriciaTrie trie = new LongPatriciaTrie();
+
+    public void testPutGetAndRemove() {
+        trie.put("big", Long.MAX_VALUE);
+        trie.put("bigger", Long.MIN_VALUE);
+        trie.put("bag", 0);
+        assertEquals(Long.MAX_VALUE, trie.get("big", -1));
+        assertEquals(Long.MIN_VALUE, trie.get(new StringBuilder("bigger"), -1));
+        assertEquals(-1, trie.get("bi", -1));
+        assertEquals(Long.MAX_VALUE, trie.remove("big", -1));
+        assertEquals(-1, trie.remove("big", -1));
+        // "bigger" was merged into the edge "big" left behind
+        assertEquals(Long.MIN_VALUE, trie.get("bigger", -1));
+        assertEquals(2, trie.size());
+    }
+
+    public void testGetOrPut() {
+        assertEquals(1L << 40, trie.getOrPut("k", 1L << 40));
+        assertEquals(1L << 40, trie.getOrPut("k", 7));
+        assertEquals(7, trie.getOrPut("ke", 7));
+        assertEquals(2, trie.size());
+    }
+}
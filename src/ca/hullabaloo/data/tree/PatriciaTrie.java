@@ -1,67 +1,256 @@
 package ca.hullabaloo.data.tree;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.NoSuchElementException;
 
+/**
+ * A radix tree over the UTF-8 bytes of its keys.  Children are ordered by unsigned
+ * byte, which is the order of the keys' code points.
+ * <p/>
+ * Each node lays out its children according to how many it has, after the
+ * Adaptive Radix Tree (Leis et al., "The Adaptive Radix Tree: ARTful Indexing for
+ * Main-Memory Databases"): up to 4 or 16 in a sorted key array searched directly, up
+ * to 48 through a 256 entry byte index, and beyond that directly indexed by byte.
+ * <p/>
+ * {@link #cursor}, {@link #prefix} and {@link #range} walk entries in key order
+ * without copying the trie; a cursor reflects changes made while it's in use only
+ * if they're beyond where it has got to, and may fail if nodes it's on are split or
+ * merged.
+ */
 public class PatriciaTrie<V> {
     private static final Charset utf8 = Charset.forName("UTF-8");
 
     private static final byte[] EMPTY = {};
     private static final Node[] NO_CHILDREN = {};
-    private Node root = new Node();
+    /**
+     * read through {@link #root()}, which a copy on write subclass overrides
+     */
+    private Node root;
+    /**
+     * if set, writers never change a reachable node: they copy the path down to the
+     * change and {@link #publish} a new root.  Writers must be serialized.
+     */
+    private final boolean copyOnWrite;
+    /**
+     * keys with a value
+     */
+    private int size;
 
     public PatriciaTrie() {
+        this(false);
+    }
+
+    PatriciaTrie(boolean copyOnWrite) {
+        this(copyOnWrite, new Node());
+    }
+
+    /**
+     * A trie whose nodes are all made by {@code root}'s {@link Node#create}
+     */
+    PatriciaTrie(boolean copyOnWrite, Node root) {
+        this.copyOnWrite = copyOnWrite;
+        this.root = root;
+    }
+
+    /**
+     * The root readers start from
+     */
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Makes a copied tree current, once {@link #size} counts it; a subclass that lets
+     * other threads read while it writes publishes through a volatile field instead
+     */
+    void publish(Node top) {
+        root = top;
     }
 
     public boolean isEmpty() {
-        return root.children.length == 0;
+        return size() == 0;
     }
 
+    /**
+     * The number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores {@code value} under {@code key}; storing null removes the key
+     */
     public void put(String key, V value) {
         byte[] bytes = key.getBytes(utf8);
-        Node n = insert(root, 0, bytes, 0);
+        store(bytes, 0, bytes.length, value);
+    }
+
+    /**
+     * Stores under the UTF-8 encoding of {@code key}; allocates only if the key is new
+     */
+    public void put(CharSequence key, V value) {
+        Node n = copyOnWrite || value == null ? null : find(root(), key);
+        if (n == null) {
+            byte[] bytes = key.toString().getBytes(utf8);
+            store(bytes, 0, bytes.length, value);
+        } else {
+            if (n.value == null)
+                size++;
+            n.value = value;
+        }
+    }
+
+    /**
+     * Stores under the key {@code key[offset, offset + length)}, which is copied as needed
+     */
+    public void put(byte[] key, int offset, int length, V value) {
+        checkSlice(key, offset, length);
+        store(key, offset, offset + length, value);
+    }
+
+    /**
+     * Stores under the buffer's remaining bytes, without moving its position;
+     * allocates only if the key is new
+     */
+    public void put(ByteBuffer key, V value) {
+        Node n = copyOnWrite || value == null ? null : find(root(), key);
+        if (n == null) {
+            byte[] bytes = new byte[key.remaining()];
+            key.duplicate().get(bytes);
+            store(bytes, 0, bytes.length, value);
+        } else {
+            if (n.value == null)
+                size++;
+            n.value = value;
+        }
+    }
+
+    private void store(byte[] key, int offset, int end, V value) {
+        if (value == null) {
+            delete(key, offset, end);
+            return;
+        }
+        Node top = copyOnWrite ? root().copy() : root;
+        Node n = insert(top, 0, key, offset, end);
+        setValue(n, value);
+        if (copyOnWrite)
+            publish(top);
+    }
+
+    /**
+     * The node for a key, added without a value if it's new; for tries that keep their
+     * values in {@link Node} subclasses, which aren't copy on write
+     */
+    Node nodeFor(byte[] key, int offset, int end) {
+        assert !copyOnWrite;
+        return insert(root(), 0, key, offset, end);
+    }
+
+    /**
+     * The node for a key, or null
+     */
+    Node node(CharSequence key) {
+        return find(root(), key);
+    }
+
+    Node node(byte[] key, int offset, int length) {
+        checkSlice(key, offset, length);
+        return find(root(), key, offset, offset + length);
+    }
+
+    /**
+     * Sets a non-null value on a node, counting the key if it's new
+     */
+    void setValue(Node n, Object value) {
+        if (n.value == null)
+            size++;
         n.value = value;
     }
 
-    private enum Rel {
-        EQ, LT, GT;
+    /**
+     * Removes {@code key}, merging and shrinking the nodes it leaves behind
+     *
+     * @return the value it had, or null
+     */
+    public Object remove(String key) {
+        byte[] bytes = key.getBytes(utf8);
+        return delete(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Removes the key {@code key[offset, offset + length)}
+     *
+     * @return the value it had, or null
+     */
+    public Object remove(byte[] key, int offset, int length) {
+        checkSlice(key, offset, length);
+        return delete(key, offset, offset + length);
+    }
+
+    private Object delete(byte[] key, int offset, int end) {
+        Node n = find(root(), key, offset, end);
+        if (n == null || n.value == null)
+            return null;
+        Object old = n.value;
 
-        static Rel of(byte a, byte b) {
-            return a == b ? EQ : (a > b ? GT : LT);
+        // the key is there, so every edge on the way down matches in full
+        Node top = copyOnWrite ? root().copy() : root;
+        Node parent = null, current = top;
+        for (int consumed = offset; consumed < end; consumed += current.edge.length) {
+            Node child = current.child(key[consumed]);
+            if (copyOnWrite)
+                current.setChild(child = child.copy());
+            parent = current;
+            current = child;
         }
+
+        current.value = null;
+        if (current != top && current.count == 0) {
+            parent.removeChild(current.edge[0]);
+            current = parent;
+        }
+        // a node without a value only needs to exist where the path forks
+        if (current != top && current.value == null && current.count == 1)
+            current.mergeOnlyChild();
+        size--;
+        if (copyOnWrite)
+            publish(top);
+        return old;
+    }
+
+    static void checkSlice(byte[] key, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > key.length)
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + " of " + key.length);
     }
 
-    private Node insert(Node current, int edgeConsumed, byte[] key, int keyConsumed) {
-        INSERT:
+    private Node insert(Node current, int edgeConsumed, byte[] key, int keyConsumed, int keyEnd) {
         while (true) {
             // match as much as you can from the current edge
-            for (int edgeLen = current.edge.length, keyLen = key.length;
-                 edgeConsumed < edgeLen && keyConsumed < keyLen;
+            for (int edgeLen = current.edge.length;
+                 edgeConsumed < edgeLen && keyConsumed < keyEnd;
                  edgeConsumed++, keyConsumed++) {
                 if (key[keyConsumed] != current.edge[edgeConsumed])
                     break;
             }
 
             boolean edgeCompletelyConsumed = edgeConsumed == current.edge.length;
-            boolean keyCompletelyConsumed = keyConsumed == key.length;
+            boolean keyCompletelyConsumed = keyConsumed == keyEnd;
 
             // if consumed entire edge BUT key has bytes left, find child edge
             if (edgeCompletelyConsumed && !keyCompletelyConsumed) {
-                for (int i = 0, N = current.children.length; i < N; i++) {
-                    Node child = current.children[i];
-                    switch (Rel.of(key[keyConsumed], child.edge[0])) {
-                        case LT:
-                            return current.insertEdge(i, tail(key, keyConsumed));
-                        case GT:
-                            break;
-                        case EQ:
-                            current = child;
-                            edgeConsumed = 1;
-                            keyConsumed++;
-                            continue INSERT;
-                    }
-                }
-                return current.appendEdge(tail(key, keyConsumed));
+                Node child = current.child(key[keyConsumed]);
+                if (child == null)
+                    return current.addChild(Arrays.copyOfRange(key, keyConsumed, keyEnd));
+                if (copyOnWrite)
+                    current.setChild(child = child.copy());
+                current = child;
+                edgeConsumed = 1;
+                keyConsumed++;
+                continue;
             }
 
             // if we consumed the key but not the edge, split
@@ -71,7 +260,7 @@ public class PatriciaTrie<V> {
 
             // if we couldn't consume the entire edge, split
             if (!edgeCompletelyConsumed) {
-                return current.splitAndAdd(edgeConsumed, tail(key, keyConsumed));
+                return current.splitAndAdd(edgeConsumed, Arrays.copyOfRange(key, keyConsumed, keyEnd));
             }
 
             // if consumed BOTH entire edge AND key, we found existing
@@ -83,71 +272,693 @@ public class PatriciaTrie<V> {
         }
     }
 
-    private byte[] tail(byte[] bytes, int skip) {
-        assert (skip < bytes.length);
-        return Arrays.copyOfRange(bytes, skip, bytes.length);
+    public Object get(String key) {
+        return get((CharSequence) key);
     }
 
-    public Object get(String key) {
-        Node first = find(root, 0, key.getBytes(utf8), 0);
-        return first == null ? null : first.value;
+    /**
+     * Looks up the UTF-8 encoding of {@code key}, encoding as it goes; allocates nothing
+     */
+    public Object get(CharSequence key) {
+        Node n = find(root(), key);
+        return n == null ? null : n.value;
     }
 
-    private Node find(Node current, int edgeConsumed, byte[] key, int keyConsumed) {
-        FIND:
+    public Object get(byte[] key, int offset, int length) {
+        checkSlice(key, offset, length);
+        Node n = find(root(), key, offset, offset + length);
+        return n == null ? null : n.value;
+    }
+
+    /**
+     * Looks up the buffer's remaining bytes, without moving its position
+     */
+    public Object get(ByteBuffer key) {
+        Node n = find(root(), key);
+        return n == null ? null : n.value;
+    }
+
+    /**
+     * The longest key that is a prefix of {@code key} (or is {@code key}), or null
+     */
+    public String longestPrefixOf(String key) {
+        byte[] bytes = key.getBytes(utf8);
+        int length = matchLength(root(), bytes, 0, bytes.length);
+        return length < 0 ? null : new String(bytes, 0, length, utf8);
+    }
+
+    /**
+     * The length of the longest key that is a prefix of {@code key[offset, offset + length)},
+     * or -1 if there's none
+     */
+    public int longestPrefixOf(byte[] key, int offset, int length) {
+        checkSlice(key, offset, length);
+        return matchLength(root(), key, offset, offset + length);
+    }
+
+    /**
+     * The length of the longest key that is a prefix of the buffer's remaining bytes, or
+     * -1 if there's none; the position doesn't move
+     */
+    public int longestPrefixOf(ByteBuffer key) {
+        return matchLength(root(), key);
+    }
+
+    /**
+     * The value of {@link #longestPrefixOf(String) the longest key that is a prefix of}
+     * {@code key}, found in a single descent
+     */
+    public Object getLongestPrefixMatch(String key) {
+        byte[] bytes = key.getBytes(utf8);
+        Node n = match(root(), bytes, 0, bytes.length);
+        return n == null ? null : n.value;
+    }
+
+    public Object getLongestPrefixMatch(byte[] key, int offset, int length) {
+        checkSlice(key, offset, length);
+        Node n = match(root(), key, offset, offset + length);
+        return n == null ? null : n.value;
+    }
+
+    public Object getLongestPrefixMatch(ByteBuffer key) {
+        Node n = match(root(), key);
+        return n == null ? null : n.value;
+    }
+
+    /**
+     * The deepest node with a value whose key is a prefix of {@code key[keyConsumed, keyEnd)}
+     */
+    private Node match(Node current, byte[] key, int keyConsumed, int keyEnd) {
+        Node match = null;
+        while (true) {
+            // the key matches everything down to the end of current's edge
+            if (current.value != null)
+                match = current;
+            if (keyConsumed == keyEnd)
+                return match;
+            current = current.child(key[keyConsumed]);
+            if (current == null)
+                return match;
+            byte[] edge = current.edge;
+            if (keyEnd - keyConsumed < edge.length)
+                return match;
+            for (int i = 1; i < edge.length; i++)
+                if (key[keyConsumed + i] != edge[i])
+                    return match;
+            keyConsumed += edge.length;
+        }
+    }
+
+    /**
+     * {@link #match(Node, byte[], int, int)}, returning how much of the key it covers
+     */
+    private int matchLength(Node current, byte[] key, int keyConsumed, int keyEnd) {
+        int start = keyConsumed, match = -1;
+        while (true) {
+            if (current.value != null)
+                match = keyConsumed - start;
+            if (keyConsumed == keyEnd)
+                return match;
+            current = current.child(key[keyConsumed]);
+            if (current == null)
+                return match;
+            byte[] edge = current.edge;
+            if (keyEnd - keyConsumed < edge.length)
+                return match;
+            for (int i = 1; i < edge.length; i++)
+                if (key[keyConsumed + i] != edge[i])
+                    return match;
+            keyConsumed += edge.length;
+        }
+    }
+
+    private Node match(Node current, ByteBuffer key) {
+        Node match = null;
+        for (int keyConsumed = key.position(), keyEnd = key.limit(); ; ) {
+            if (current.value != null)
+                match = current;
+            if (keyConsumed == keyEnd)
+                return match;
+            current = current.child(key.get(keyConsumed));
+            if (current == null)
+                return match;
+            byte[] edge = current.edge;
+            if (keyEnd - keyConsumed < edge.length)
+                return match;
+            for (int i = 1; i < edge.length; i++)
+                if (key.get(keyConsumed + i) != edge[i])
+                    return match;
+            keyConsumed += edge.length;
+        }
+    }
+
+    private int matchLength(Node current, ByteBuffer key) {
+        int match = -1;
+        for (int keyConsumed = key.position(), keyEnd = key.limit(); ; ) {
+            if (current.value != null)
+                match = keyConsumed - key.position();
+            if (keyConsumed == keyEnd)
+                return match;
+            current = current.child(key.get(keyConsumed));
+            if (current == null)
+                return match;
+            byte[] edge = current.edge;
+            if (keyEnd - keyConsumed < edge.length)
+                return match;
+            for (int i = 1; i < edge.length; i++)
+                if (key.get(keyConsumed + i) != edge[i])
+                    return match;
+            keyConsumed += edge.length;
+        }
+    }
+
+    private Node find(Node current, byte[] key, int keyConsumed, int keyEnd) {
+        int edgeConsumed = 0;
         while (true) {
             // match as much as you can from the current edge
-            for (int N = Math.min(current.edge.length, key.length);
-                 edgeConsumed < N;
+            for (int edgeLen = current.edge.length;
+                 edgeConsumed < edgeLen && keyConsumed < keyEnd;
                  edgeConsumed++, keyConsumed++) {
                 if (key[keyConsumed] != current.edge[edgeConsumed])
-                    break;
+                    return null;
             }
 
-            boolean edgeCompletelyConsumed = edgeConsumed == current.edge.length;
-            boolean keyCompletelyConsumed = keyConsumed == key.length;
+            // the key ran out inside the edge
+            if (edgeConsumed < current.edge.length)
+                return null;
+            if (keyConsumed == keyEnd)
+                return current;
 
-            // if consumed entire edge BUT key has bytes left, find child edge
-            if (edgeCompletelyConsumed && !keyCompletelyConsumed) {
-                // TODO: binary search
-                for (int i = 0, N = current.children.length; i < N; i++) {
-                    Node child = current.children[i];
-                    switch (Rel.of(key[keyConsumed], child.edge[0])) {
-                        case LT:
-                            // all children GT me
-                            return null;
-                        case GT:
-                            // look next
-                            break;
-                        case EQ:
-                            // look down
-                            current = child;
-                            edgeConsumed = 1;
-                            keyConsumed++;
-                            continue FIND;
-                    }
-                }
-                // no possible children found
+            // consumed entire edge BUT key has bytes left, find child edge
+            current = current.child(key[keyConsumed]);
+            if (current == null)
                 return null;
+            edgeConsumed = 1;
+            keyConsumed++;
+        }
+    }
+
+    /**
+     * {@link #find(Node, byte[], int, int)}, reading the buffer with absolute gets so
+     * heap and direct buffers both work without copying
+     */
+    private Node find(Node current, ByteBuffer key) {
+        int edgeConsumed = 0;
+        for (int keyConsumed = key.position(), keyEnd = key.limit(); ; ) {
+            for (int edgeLen = current.edge.length;
+                 edgeConsumed < edgeLen && keyConsumed < keyEnd;
+                 edgeConsumed++, keyConsumed++) {
+                if (key.get(keyConsumed) != current.edge[edgeConsumed])
+                    return null;
             }
+            if (edgeConsumed < current.edge.length)
+                return null;
+            if (keyConsumed == keyEnd)
+                return current;
+            current = current.child(key.get(keyConsumed));
+            if (current == null)
+                return null;
+            edgeConsumed = 1;
+            keyConsumed++;
+        }
+    }
 
-            // if we couldn't consume the entire edge, not found
-            if (!edgeCompletelyConsumed) {
+    /**
+     * {@link #find(Node, byte[], int, int)} over the UTF-8 encoding of {@code key}, which
+     * is encoded a character at a time as the walk reaches it
+     */
+    private Node find(Node current, CharSequence key) {
+        int edgeConsumed = 0;
+        int chars = 0, charEnd = key.length();
+        // the current character's bytes not yet matched, lowest first
+        int encoded = 0, pending = 0;
+        while (true) {
+            byte[] edge = current.edge;
+            for (; edgeConsumed < edge.length; edgeConsumed++) {
+                if (pending == 0) {
+                    if (chars == charEnd)
+                        return null;
+                    long e = utf8(key, chars);
+                    encoded = (int) e;
+                    pending = (int) (e >>> 32) & 0xff;
+                    chars += (int) (e >>> 40);
+                }
+                if ((byte) encoded != edge[edgeConsumed])
+                    return null;
+                encoded >>>= 8;
+                pending--;
+            }
+            if (pending == 0) {
+                if (chars == charEnd)
+                    return current;
+                long e = utf8(key, chars);
+                encoded = (int) e;
+                pending = (int) (e >>> 32) & 0xff;
+                chars += (int) (e >>> 40);
+            }
+            current = current.child((byte) encoded);
+            if (current == null)
                 return null;
+            encoded >>>= 8;
+            pending--;
+            edgeConsumed = 1;
+        }
+    }
+
+    /**
+     * The UTF-8 bytes of the character at {@code index}, as {@code String.getBytes} would
+     * write them (so an unpaired surrogate is '?'): the bytes packed first-lowest in bits
+     * 0-31, their count in bits 32-39, and the number of chars used in bits 40 and up.
+     */
+    static long utf8(CharSequence s, int index) {
+        char c = s.charAt(index);
+        int bytes;
+        int length = 1, chars = 1;
+        if (c < 0x80) {
+            bytes = c;
+        } else if (c < 0x800) {
+            bytes = (0xc0 | c >>> 6) | (0x80 | c & 0x3f) << 8;
+            length = 2;
+        } else if (!Character.isSurrogate(c)) {
+            bytes = (0xe0 | c >>> 12) | (0x80 | c >>> 6 & 0x3f) << 8 | (0x80 | c & 0x3f) << 16;
+            length = 3;
+        } else if (Character.isHighSurrogate(c) && index + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(index + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(index + 1));
+            bytes = (0xf0 | cp >>> 18) | (0x80 | cp >>> 12 & 0x3f) << 8
+                    | (0x80 | cp >>> 6 & 0x3f) << 16 | (0x80 | cp & 0x3f) << 24;
+            length = 4;
+            chars = 2;
+        } else {
+            bytes = '?';
+        }
+        return (bytes & 0xffffffffL) | (long) length << 32 | (long) chars << 40;
+    }
+
+    /**
+     * All entries, in key order
+     */
+    public Cursor cursor() {
+        return new Cursor(root(), EMPTY, false);
+    }
+
+    /**
+     * Entries whose keys start with {@code prefix}, in key order
+     */
+    public Cursor prefix(String prefix) {
+        byte[] p = prefix.getBytes(utf8);
+        Node n = root();
+        int consumed = 0;
+        while (consumed < p.length) {
+            Node c = n.child(p[consumed]);
+            if (c == null)
+                return new Cursor(null, EMPTY, false);
+            for (int i = 1; i < c.edge.length; i++) {
+                if (consumed + i == p.length) {
+                    // the prefix ends inside this edge; everything below matches
+                    byte[] path = Arrays.copyOf(p, consumed + c.edge.length);
+                    System.arraycopy(c.edge, 0, path, consumed, c.edge.length);
+                    return new Cursor(c, path, false);
+                }
+                if (c.edge[i] != p[consumed + i])
+                    return new Cursor(null, EMPTY, false);
             }
+            consumed += c.edge.length;
+            n = c;
+        }
+        return new Cursor(n, p, false);
+    }
 
-            // if consumed BOTH entire edge AND key, we found existing
-            if (edgeCompletelyConsumed && keyCompletelyConsumed) {
-                return current;
+    /**
+     * Entries with keys in {@code [from, to)}, in key order; either bound may be null
+     */
+    public Cursor range(String from, String to) {
+        Cursor c = new Cursor(root(), EMPTY, false);
+        if (from != null)
+            c.seek(from.getBytes(utf8));
+        if (to != null)
+            c.limit = to.getBytes(utf8);
+        return c;
+    }
+
+    /**
+     * The least key greater than or equal to {@code key}, or null
+     */
+    public String ceilingKey(String key) {
+        Cursor c = range(key, null);
+        return c.next() ? c.key() : null;
+    }
+
+    /**
+     * The greatest key less than or equal to {@code key}, or null
+     */
+    public String floorKey(String key) {
+        Cursor c = new Cursor(root(), EMPTY, true);
+        c.seek(key.getBytes(utf8));
+        return c.next() ? c.key() : null;
+    }
+
+    /**
+     * A compact, read-only copy of the current contents, which can be written to disk
+     * and mapped back; see {@link FrozenPatriciaTrie}
+     */
+    public FrozenPatriciaTrie<V> freeze() {
+        FrozenPatriciaTrie.Builder b = new FrozenPatriciaTrie.Builder();
+        ArrayDeque<Node> queue = new ArrayDeque<Node>();
+        Node top = root();
+        b.reserve(top.count);
+        queue.add(top);
+        // breadth first, so each node's children are reserved before they're written
+        while (!queue.isEmpty()) {
+            Node n = queue.poll();
+            b.node(n.edge, n.value, n.count);
+            for (int k = n.nextKey(0); k >= 0; k = n.nextKey(k + 1)) {
+                Node c = n.child((byte) k);
+                b.child((byte) k, b.reserve(c.count));
+                queue.add(c);
+            }
+        }
+        return b.build();
+    }
+
+    /**
+     * Builds a trie from keys supplied in increasing order in one pass, without the
+     * splits and regrowing that repeated {@link #put} goes through
+     */
+    public static <V> BulkLoader<V> bulkLoader() {
+        return new BulkLoader<V>();
+    }
+
+    /**
+     * Builds a trie bottom up from keys in strictly increasing (unsigned byte) order.
+     * <p/>
+     * Only the path of the previous key is open.  The common prefix of each new key with
+     * the previous one says how much of that path is finished: finished nodes are built
+     * straight into their final layout, children sized exactly, and wait on a stack for
+     * their parent to close over them.  Each key is visited once, so loading is linear in
+     * the total key length.
+     * <p/>
+     * The gain over {@link #put} of the same sorted keys is mostly in allocation: no
+     * child array is outgrown and copied, so only the finished tree is allocated.  Both
+     * spend most of their time allocating the same nodes, so once compiled a load takes
+     * only about 30% less time than the puts, not several times less.
+     */
+    public static class BulkLoader<V> {
+        /**
+         * The open path, root at 0: where each node's edge starts and ends in
+         * {@link #previous}, its value, and where its finished children start in
+         * {@link #finished}
+         */
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] firstChild = new int[16];
+        private Object[] values = new Object[16];
+        private int depth;
+        private Node[] finished = new Node[16];
+        private int finishedCount;
+        private byte[] previous;
+        private int size;
+        private boolean built;
+
+        private BulkLoader() {
+        }
+
+        public BulkLoader<V> add(String key, V value) {
+            return add(key.getBytes(utf8), value);
+        }
+
+        /**
+         * Adds a key, which is kept until the next one has been added, so mustn't be changed
+         *
+         * @throws IllegalArgumentException if {@code key} isn't greater than the previous
+         *                                  key, or {@code value} is null
+         */
+        public BulkLoader<V> add(byte[] key, V value) {
+            if (built)
+                throw new IllegalStateException("already built");
+            if (value == null)
+                throw new IllegalArgumentException("null value for key:" + new String(key, utf8));
+            int common = 0;
+            if (previous != null) {
+                int n = Math.min(previous.length, key.length);
+                while (common < n && previous[common] == key[common])
+                    common++;
+                if (common == key.length
+                        || common < previous.length && (key[common] & 0xff) < (previous[common] & 0xff))
+                    throw new IllegalArgumentException("key out of order:" + new String(key, utf8));
+            } else if (key.length == 0) {
+                values[0] = value;
+                previous = key;
+                size++;
+                return this;
             }
 
-            throw new AssertionError();
+            // everything on the open path below the common prefix is finished
+            while (depth > 0 && starts[depth] >= common)
+                finish(starts[depth]);
+            if (depth > 0 && ends[depth] > common) {
+                // the new key leaves in the middle of this edge: its tail is finished, and
+                // the head becomes an open node whose first child is the tail
+                int start = starts[depth], children = firstChild[depth];
+                finish(common);
+                open(start, common, null, children);
+            }
+            open(common, key.length, value, finishedCount);
+            previous = key;
+            size++;
+            return this;
+        }
+
+        public PatriciaTrie<V> build() {
+            if (built)
+                throw new IllegalStateException("already built");
+            built = true;
+            while (depth > 0)
+                finish(starts[depth]);
+            PatriciaTrie<V> trie = new PatriciaTrie<V>();
+            trie.root = Node.of(EMPTY, values[0], finished, 0, finishedCount);
+            trie.size = size;
+            return trie;
+        }
+
+        private void open(int start, int end, Object value, int children) {
+            if (++depth == starts.length) {
+                starts = Arrays.copyOf(starts, depth * 2);
+                ends = Arrays.copyOf(ends, depth * 2);
+                firstChild = Arrays.copyOf(firstChild, depth * 2);
+                values = Arrays.copyOf(values, depth * 2);
+            }
+            starts[depth] = start;
+            ends[depth] = end;
+            values[depth] = value;
+            firstChild[depth] = children;
+        }
+
+        /**
+         * Closes the deepest open node, with its edge from {@code edgeStart}, over its
+         * finished children, and leaves it waiting for its own parent
+         */
+        private void finish(int edgeStart) {
+            int from = firstChild[depth];
+            Node n = Node.of(Arrays.copyOfRange(previous, edgeStart, ends[depth]), values[depth],
+                    finished, from, finishedCount - from);
+            Arrays.fill(finished, from, finishedCount, null);
+            values[depth] = null;
+            depth--;
+            finishedCount = from;
+            if (finishedCount == finished.length)
+                finished = Arrays.copyOf(finished, finishedCount * 2);
+            finished[finishedCount++] = n;
+        }
+    }
+
+    /**
+     * Compares an edge to the key bytes from {@code offset}: negative if everything under
+     * the edge sorts before the key, positive if after (including when the key ends inside
+     * the edge), and zero if the key continues past the edge or ends with it exactly.
+     */
+    private static int compareEdge(byte[] edge, byte[] key, int offset) {
+        for (int i = 0; i < edge.length; i++) {
+            if (offset + i == key.length)
+                return 1;
+            int d = (edge[i] & 0xff) - (key[offset + i] & 0xff);
+            if (d != 0)
+                return d;
+        }
+        return 0;
+    }
+
+    private static int compare(byte[] a, int aLength, byte[] b) {
+        for (int i = 0, n = Math.min(aLength, b.length); i < n; i++) {
+            int d = (a[i] & 0xff) - (b[i] & 0xff);
+            if (d != 0)
+                return d;
+        }
+        return aLength - b.length;
+    }
+
+    /**
+     * Walks entries in order with an explicit stack of nodes, building each key in one
+     * reused buffer.  Call {@link #next} to move to the first entry.
+     */
+    public class Cursor {
+        /**
+         * For each node on the stack: the next child byte to visit, or -1 if its own
+         * value is still to come; and where its edge ends in {@link #key}
+         */
+        private Node[] nodes = new Node[16];
+        private int[] next = new int[16];
+        private int[] ends = new int[16];
+        private int depth;
+        private byte[] key = new byte[64];
+        private final boolean descending;
+        private byte[] limit;
+        private Node current;
+        private int keyLength;
+
+        private Cursor(Node start, byte[] path, boolean descending) {
+            this.descending = descending;
+            if (start == null) {
+                depth = -1;
+                return;
+            }
+            if (path.length > key.length)
+                key = Arrays.copyOf(path, path.length);
+            System.arraycopy(path, 0, key, 0, path.length);
+            nodes[0] = start;
+            ends[0] = path.length;
+            next[0] = descending ? 255 : -1;
+        }
+
+        /**
+         * Moves to the next entry
+         *
+         * @return false if there are no more
+         */
+        public boolean next() {
+            current = null;
+            while (depth >= 0) {
+                Node n = nodes[depth];
+                int nx = next[depth];
+                if (descending) {
+                    if (nx < 0) {
+                        depth--;
+                        if (n.value != null)
+                            return at(n, ends[depth + 1]);
+                        continue;
+                    }
+                    int b = n.prevKey(nx);
+                    next[depth] = b - 1;
+                    if (b >= 0) push(n.child((byte) b), 255);
+                } else {
+                    if (nx < 0) {
+                        next[depth] = 0;
+                        if (n.value != null) {
+                            if (limit != null && compare(key, ends[depth], limit) >= 0) {
+                                depth = -1;
+                                return false;
+                            }
+                            return at(n, ends[depth]);
+                        }
+                        continue;
+                    }
+                    int b = n.nextKey(nx);
+                    if (b < 0) {
+                        depth--;
+                        continue;
+                    }
+                    next[depth] = b + 1;
+                    push(n.child((byte) b), -1);
+                }
+            }
+            return false;
+        }
+
+        private boolean at(Node n, int length) {
+            current = n;
+            keyLength = length;
+            return true;
+        }
+
+        private void push(Node child, int state) {
+            int start = ends[depth];
+            int end = start + child.edge.length;
+            if (++depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+                ends = Arrays.copyOf(ends, depth * 2);
+            }
+            if (end > key.length)
+                key = Arrays.copyOf(key, Math.max(end, key.length * 2));
+            System.arraycopy(child.edge, 0, key, start, child.edge.length);
+            nodes[depth] = child;
+            next[depth] = state;
+            ends[depth] = end;
+        }
+
+        /**
+         * Positions the stack so that {@link #next} moves to the first key at or after
+         * {@code target}, or when descending, at or before it
+         */
+        private void seek(byte[] target) {
+            int consumed = ends[0];
+            while (true) {
+                Node n = nodes[depth];
+                if (consumed == target.length) {
+                    // n's key is the target: ascending, all of n qualifies; descending, only n itself
+                    next[depth] = -1;
+                    return;
+                }
+                int b = target[consumed] & 0xff;
+                // n's own key is a proper prefix of the target, so smaller
+                next[depth] = descending ? b - 1 : b + 1;
+                Node c = n.child((byte) b);
+                if (c == null)
+                    return;
+                int cmp = compareEdge(c.edge, target, consumed);
+                if (descending ? cmp > 0 : cmp < 0)
+                    return;
+                push(c, descending ? 255 : -1);
+                if (cmp != 0)
+                    return;
+                consumed += c.edge.length;
+            }
+        }
+
+        /**
+         * The current key's bytes, in a buffer that's reused as the cursor moves;
+         * only the first {@link #keyLength} are meaningful
+         */
+        public byte[] keyBytes() {
+            check();
+            return key;
+        }
+
+        public int keyLength() {
+            check();
+            return keyLength;
+        }
+
+        public String key() {
+            check();
+            return new String(key, 0, keyLength, utf8);
+        }
+
+        @SuppressWarnings({"unchecked"})
+        public V value() {
+            check();
+            return (V) current.value;
+        }
+
+        private void check() {
+            if (current == null)
+                throw new NoSuchElementException();
         }
     }
 
     public String debug() {
         StringBuilder buf = new StringBuilder();
-        debug(buf, 0, root);
+        debug(buf, 0, root());
         return buf.toString();
     }
 
@@ -157,80 +968,348 @@ public class PatriciaTrie<V> {
         buf.append(current.edge.length == 0 ? "-" : new String(current.edge, utf8));
         buf.append(" (").append(current.value).append(')');
         buf.append(nl);
-        for (Node n : current.children) {
-            debug(buf, level + 1, n);
+        for (int b = current.nextKey(0); b >= 0; b = current.nextKey(b + 1)) {
+            debug(buf, level + 1, current.child((byte) b));
         }
     }
 
-    private static class Node {
+    /**
+     * Package visible so that {@link IntPatriciaTrie} and {@link LongPatriciaTrie} can keep
+     * a primitive alongside the value
+     */
+    static class Node {
+        private static final int SMALL = 4;
+        private static final int MEDIUM = 16;
+        private static final int INDEXED = 48;
+        private static final int DIRECT = 256;
+
         private byte[] edge = EMPTY;
-        private Object value;
+        /**
+         * non-null if this node's key is in the trie
+         */
+        Object value;
+        /**
+         * Children, keyed by the first byte of their edge.  The layout follows from
+         * {@code children.length}: up to {@link #MEDIUM}, {@code keys[0, count)} are
+         * sorted unsigned alongside their children; at {@link #INDEXED}, {@code keys} is
+         * indexed by byte and holds the child's slot + 1; at {@link #DIRECT} the
+         * children are indexed by byte.
+         */
+        private byte[] keys = EMPTY;
         private Node[] children = NO_CHILDREN;
+        private int count;
 
         public String toString() {
             return new String(edge, utf8);
         }
 
-        public Node appendEdge(byte[] newEdge) {
-            Node n = new Node();
-            n.edge = newEdge;
-            children = Arrays.copyOf(children, children.length + 1);
-            children[children.length - 1] = n;
+        /**
+         * A new, empty node of the same kind
+         */
+        Node create() {
+            return new Node();
+        }
+
+        /**
+         * Sets this node's value to {@code n}'s
+         */
+        void takeValue(Node n) {
+            value = n.value;
+        }
+
+        public Node child(byte b) {
+            Node[] c = children;
+            if (c.length == DIRECT)
+                return c[b & 0xff];
+            if (c.length == INDEXED) {
+                int slot = keys[b & 0xff];
+                return slot == 0 ? null : c[slot - 1];
+            }
+            int i = indexOf(b);
+            return i < 0 ? null : c[i];
+        }
+
+        /**
+         * Position of {@code b} among the sorted keys, or {@code -(insertion point) - 1}
+         */
+        private int indexOf(byte b) {
+            byte[] k = keys;
+            int target = b & 0xff;
+            if (count <= SMALL) {
+                int i = 0;
+                for (; i < count; i++) {
+                    int key = k[i] & 0xff;
+                    if (key == target) return i;
+                    if (key > target) break;
+                }
+                return -i - 1;
+            }
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int key = k[mid] & 0xff;
+                if (key < target) lo = mid + 1;
+                else if (key > target) hi = mid - 1;
+                else return mid;
+            }
+            return -lo - 1;
+        }
+
+        /**
+         * The smallest child key (as an unsigned byte) that is {@code >= from}, or -1
+         */
+        public int nextKey(int from) {
+            if (children.length == DIRECT) {
+                for (int b = from; b < DIRECT; b++)
+                    if (children[b] != null) return b;
+            } else if (children.length == INDEXED) {
+                for (int b = from; b < DIRECT; b++)
+                    if (keys[b] != 0) return b;
+            } else {
+                for (int i = 0; i < count; i++)
+                    if ((keys[i] & 0xff) >= from) return keys[i] & 0xff;
+            }
+            return -1;
+        }
+
+        /**
+         * The largest child key (as an unsigned byte) that is {@code <= from}, or -1
+         */
+        public int prevKey(int from) {
+            if (children.length == DIRECT) {
+                for (int b = from; b >= 0; b--)
+                    if (children[b] != null) return b;
+            } else if (children.length == INDEXED) {
+                for (int b = from; b >= 0; b--)
+                    if (keys[b] != 0) return b;
+            } else {
+                for (int i = count - 1; i >= 0; i--)
+                    if ((keys[i] & 0xff) <= from) return keys[i] & 0xff;
+            }
+            return -1;
+        }
+
+        /**
+         * Replaces the child with the same first byte as {@code n}
+         */
+        public void setChild(Node n) {
+            byte b = n.edge[0];
+            if (children.length == DIRECT)
+                children[b & 0xff] = n;
+            else if (children.length == INDEXED)
+                children[keys[b & 0xff] - 1] = n;
+            else
+                children[indexOf(b)] = n;
+        }
+
+        /**
+         * A copy that can be changed without affecting this node; edges are never
+         * changed in place, so they're shared
+         */
+        public Node copy() {
+            Node n = create();
+            n.edge = edge;
+            n.takeValue(this);
+            n.keys = keys.length == 0 ? EMPTY : keys.clone();
+            n.children = children.length == 0 ? NO_CHILDREN : children.clone();
+            n.count = count;
             return n;
         }
 
-        public Node insertEdge(int childPos, byte[] newEdge) {
-            Node n = new Node();
+        /**
+         * Adds a new child, which must not share a first byte with an existing one
+         */
+        public Node addChild(byte[] newEdge) {
+            Node n = create();
             n.edge = newEdge;
-            Node[] existing = children;
-            children = new Node[children.length + 1];
-            System.arraycopy(existing, 0, children, 0, childPos);
-            System.arraycopy(existing, childPos, children, childPos + 1, existing.length - childPos);
-            children[childPos] = n;
+            addChild(n);
             return n;
         }
 
-        public Node splitAndAdd(int splitAt, byte[] newEdge) {
-            assert newEdge.length > 0;
-
-            Node child = new Node();
-            child.edge = newEdge;
+        private void addChild(Node n) {
+            if (count == children.length)
+                grow();
+            byte b = n.edge[0];
+            if (children.length == DIRECT) {
+                children[b & 0xff] = n;
+            } else if (children.length == INDEXED) {
+                children[count] = n;
+                keys[b & 0xff] = (byte) (count + 1);
+            } else {
+                int i = -indexOf(b) - 1;
+                assert i >= 0 : "duplicate child";
+                System.arraycopy(keys, i, keys, i + 1, count - i);
+                System.arraycopy(children, i, children, i + 1, count - i);
+                keys[i] = b;
+                children[i] = n;
+            }
+            count++;
+        }
 
-            Node split = new Node();
-            split.edge = Arrays.copyOfRange(this.edge, splitAt, this.edge.length);
+        private void grow() {
+            if (children.length < MEDIUM) {
+                // sorted arrays built by a BulkLoader may have any length up to MEDIUM
+                int size = children.length < SMALL ? SMALL : MEDIUM;
+                keys = Arrays.copyOf(keys, size);
+                children = Arrays.copyOf(children, size);
+            } else if (children.length == MEDIUM) {
+                byte[] index = new byte[DIRECT];
+                for (int i = 0; i < count; i++)
+                    index[keys[i] & 0xff] = (byte) (i + 1);
+                keys = index;
+                children = Arrays.copyOf(children, INDEXED);
+            } else if (children.length == INDEXED) {
+                Node[] direct = new Node[DIRECT];
+                for (int b = 0; b < DIRECT; b++)
+                    if (keys[b] != 0) direct[b] = children[keys[b] - 1];
+                keys = EMPTY;
+                children = direct;
+            } else {
+                throw new AssertionError(children.length);
+            }
+        }
 
-            this.edge = Arrays.copyOf(this.edge, splitAt);
-            split.children = this.children;
+        /**
+         * A node over {@code nodes[from, from + count)}, which must be in child key order,
+         * in the smallest layout that holds them: sorted arrays are sized exactly
+         */
+        static Node of(byte[] edge, Object value, Node[] nodes, int from, int count) {
+            Node n = new Node();
+            n.edge = edge;
+            n.value = value;
+            n.count = count;
+            if (count == 0)
+                return n;
+            if (count <= MEDIUM) {
+                n.children = Arrays.copyOfRange(nodes, from, from + count);
+                n.keys = new byte[count];
+                for (int i = 0; i < count; i++)
+                    n.keys[i] = n.children[i].edge[0];
+            } else if (count <= INDEXED) {
+                n.children = new Node[INDEXED];
+                n.keys = new byte[DIRECT];
+                for (int i = 0; i < count; i++) {
+                    Node c = nodes[from + i];
+                    n.children[i] = c;
+                    n.keys[c.edge[0] & 0xff] = (byte) (i + 1);
+                }
+            } else {
+                n.children = new Node[DIRECT];
+                for (int i = 0; i < count; i++) {
+                    Node c = nodes[from + i];
+                    n.children[c.edge[0] & 0xff] = c;
+                }
+            }
+            return n;
+        }
 
-            split.value = this.value;
-            this.value = null;
+        /**
+         * Removes the child whose edge starts with {@code b}, which must exist
+         */
+        public void removeChild(byte b) {
+            if (children.length == DIRECT) {
+                children[b & 0xff] = null;
+            } else if (children.length == INDEXED) {
+                // keep slots [0, count) full by moving the last child into the hole
+                int slot = keys[b & 0xff] - 1, last = count - 1;
+                keys[b & 0xff] = 0;
+                if (slot != last) {
+                    children[slot] = children[last];
+                    keys[children[slot].edge[0] & 0xff] = (byte) (slot + 1);
+                }
+                children[last] = null;
+            } else {
+                int i = indexOf(b);
+                assert i >= 0 : "no such child";
+                System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+                System.arraycopy(children, i + 1, children, i, count - i - 1);
+                children[count - 1] = null;
+            }
+            count--;
+            shrink();
+        }
 
-            switch (Rel.of(child.edge[0], split.edge[0])) {
-                case LT:
-                    this.children = new Node[]{child, split};
-                    break;
-                case GT:
-                    this.children = new Node[]{split, child};
-                    break;
-                case EQ:
-                    throw new AssertionError();
+        /**
+         * Moves to the next smaller layout once well below its capacity, so removing and
+         * re-adding at a boundary doesn't copy every time
+         */
+        private void shrink() {
+            if (count == 0) {
+                keys = EMPTY;
+                children = NO_CHILDREN;
+            } else if (children.length == DIRECT && count <= INDEXED * 3 / 4) {
+                Node[] indexed = new Node[INDEXED];
+                byte[] index = new byte[DIRECT];
+                for (int b = 0, slot = 0; b < DIRECT; b++) {
+                    if (children[b] != null) {
+                        indexed[slot++] = children[b];
+                        index[b] = (byte) slot;
+                    }
+                }
+                keys = index;
+                children = indexed;
+            } else if (children.length == INDEXED && count <= MEDIUM * 3 / 4) {
+                Node[] sorted = new Node[MEDIUM];
+                byte[] sortedKeys = new byte[MEDIUM];
+                for (int b = 0, i = 0; b < DIRECT; b++) {
+                    if (keys[b] != 0) {
+                        sorted[i] = children[keys[b] - 1];
+                        sortedKeys[i++] = (byte) b;
+                    }
+                }
+                keys = sortedKeys;
+                children = sorted;
+            } else if (children.length > SMALL && children.length <= MEDIUM && count <= SMALL * 3 / 4) {
+                keys = Arrays.copyOf(keys, SMALL);
+                children = Arrays.copyOf(children, SMALL);
             }
+        }
 
-            return child;
+        /**
+         * Folds this node's only child into it, extending the edge; the reverse of
+         * {@link #splitOff}
+         */
+        public void mergeOnlyChild() {
+            assert count == 1 && value == null;
+            Node child = child((byte) nextKey(0));
+            byte[] merged = Arrays.copyOf(edge, edge.length + child.edge.length);
+            System.arraycopy(child.edge, 0, merged, edge.length, child.edge.length);
+            edge = merged;
+            takeValue(child);
+            keys = child.keys;
+            children = child.children;
+            count = child.count;
         }
 
-        public Node split(int splitAt) {
-            Node split = new Node();
+        /**
+         * Moves this node's edge from {@code splitAt}, its value and its children into a
+         * new node, which becomes this node's only child
+         */
+        private Node splitOff(int splitAt) {
+            Node split = create();
             split.edge = Arrays.copyOfRange(this.edge, splitAt, this.edge.length);
-
-            this.edge = Arrays.copyOf(this.edge, splitAt);
+            split.takeValue(this);
+            split.keys = this.keys;
             split.children = this.children;
+            split.count = this.count;
 
-            split.value = this.value;
+            this.edge = Arrays.copyOf(this.edge, splitAt);
             this.value = null;
+            this.keys = EMPTY;
+            this.children = NO_CHILDREN;
+            this.count = 0;
+            addChild(split);
+            return split;
+        }
 
-            this.children = new Node[]{split};
+        public Node splitAndAdd(int splitAt, byte[] newEdge) {
+            assert newEdge.length > 0;
+            splitOff(splitAt);
+            return addChild(newEdge);
+        }
 
+        public Node split(int splitAt) {
+            splitOff(splitAt);
             return this;
         }
     }
@@ -0,0 +1,115 @@
+package ca.hullabaloo.data.tree;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class PatriciaTrieCursorTest extends TestCase {
+    private PatriciaTrie<Integer> trie = new PatriciaTrie<Integer>();
+    private TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+
+    private void put(String key, int value) {
+        trie.put(key, value);
+        expected.put(key, value);
+    }
+
+    private static List<String> keys(PatriciaTrie<Integer>.Cursor c) {
+        List<String> result = new ArrayList<String>();
+        while (c.next())
+            result.add(c.key());
+        return result;
+    }
+
+    public void testEmpty() {
+        assertFalse(trie.cursor().next());
+        assertFalse(trie.prefix("a").next());
+        assertNull(trie.floorKey("a"));
+        assertNull(trie.ceilingKey("a"));
+    }
+
+    public void testCursorIsInKeyOrder() {
+        for (String k : new String[]{"BAC", "AB", "AX", "BACARDI", "BAD", "", "A"})
+            put(k, k.length());
+        PatriciaTrie<Integer>.Cursor c = trie.cursor();
+        for (Map.Entry<String, Integer> e : expected.entrySet()) {
+            assertTrue(c.next());
+            assertEquals(e.getKey(), c.key());
+            assertEquals(e.getValue(), c.value());
+            assertEquals(e.getKey().length(), c.keyLength());
+        }
+        assertFalse(c.next());
+        try {
+            c.value();
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    public void testNullValuesAreSkipped() {
+        put("a", 1);
+        trie.put("ab", null);
+        put("abc", 2);
+        assertEquals(Arrays.asList("a", "abc"), keys(trie.cursor()));
+    }
+
+    public void testPrefix() {
+        for (String k : new String[]{"car", "card", "cards", "care", "cat", "dog", "ca"})
+            put(k, 0);
+        assertEquals(Arrays.asList("car", "card", "cards", "care"), keys(trie.prefix("car")));
+        assertEquals(Arrays.asList("card", "cards"), keys(trie.prefix("card")));
+        assertEquals(Arrays.asList("ca", "car", "card", "cards", "care", "cat"), keys(trie.prefix("c")));
+        assertEquals(Arrays.asList("dog"), keys(trie.prefix("do")));
+        assertEquals(new ArrayList<String>(expected.keySet()), keys(trie.prefix("")));
+        assertTrue(keys(trie.prefix("cb")).isEmpty());
+        assertTrue(keys(trie.prefix("cars!")).isEmpty());
+        assertTrue(keys(trie.prefix("dot")).isEmpty());
+    }
+
+    public void testRangeFloorAndCeiling() {
+        for (String k : new String[]{"b", "bb", "bbb", "c", "ca", "d"})
+            put(k, 0);
+        assertEquals(Arrays.asList("bb", "bbb", "c"), keys(trie.range("ba", "c0")));
+        assertEquals(Arrays.asList("b", "bb"), keys(trie.range(null, "bba")));
+        assertEquals(Arrays.asList("ca", "d"), keys(trie.range("c\u0000", null)));
+        assertEquals("bbb", trie.floorKey("bc"));
+        assertEquals("c", trie.ceilingKey("bc"));
+        assertEquals("bb", trie.floorKey("bb"));
+        assertEquals("bb", trie.ceilingKey("bb"));
+        assertNull(trie.floorKey("a"));
+        assertNull(trie.ceilingKey("e"));
+        assertEquals("d", trie.floorKey("zzz"));
+    }
+
+    public void testAgainstTreeMap() {
+        Random r = new Random(3);
+        for (int i = 0; i < 2000; i++)
+            put(randomKey(r), i);
+        assertEquals(new ArrayList<String>(expected.keySet()), keys(trie.cursor()));
+        for (int i = 0; i < 500; i++) {
+            String a = randomKey(r), b = randomKey(r);
+            String from = a.compareTo(b) < 0 ? a : b, to = a.compareTo(b) < 0 ? b : a;
+            assertEquals(new ArrayList<String>(expected.subMap(from, to).keySet()), keys(trie.range(from, to)));
+            assertEquals(a, expected.floorKey(a), trie.floorKey(a));
+            assertEquals(a, expected.ceilingKey(a), trie.ceilingKey(a));
+            String p = a.substring(0, Math.min(a.length(), 2));
+            assertEquals(new ArrayList<String>(expected.subMap(p, p + '\uffff').keySet()), keys(trie.prefix(p)));
+        }
+    }
+
+    /**
+     * a small alphabet, so keys share prefixes, plus some multi-byte characters
+     */
+    private static String randomKey(Random r) {
+        char[] alphabet = {'a', 'b', 'c', 'z', '\u00e9', '\u4e2d'};
+        char[] buf = new char[r.nextInt(8)];
+        for (int i = 0; i < buf.length; i++)
+            buf[i] = alphabet[r.nextInt(alphabet.length)];
+        return new String(buf);
+    }
+}
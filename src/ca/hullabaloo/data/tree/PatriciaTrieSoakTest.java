@@ -0,0 +1,499 @@
+package ca.hullabaloo.data.tree;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class PatriciaTrieSoakTest extends TestCase {
+    /**
+     * printable ascii; dense enough that nodes near the root have ~90 children
+     */
+    private static final int ALPHABET = 90;
+
+    static String[] denseKeys(int n, long seed) {
+        Random r = new Random(seed);
+        String[] keys = new String[n];
+        char[] buf = new char[12];
+        for (int i = 0; i < n; i++) {
+            int len = 3 + r.nextInt(buf.length - 3);
+            for (int j = 0; j < len; j++)
+                buf[j] = (char) ('!' + r.nextInt(ALPHABET));
+            keys[i] = new String(buf, 0, len);
+        }
+        return keys;
+    }
+
+    public void testDenseKeys() {
+        int n = 1000 * 1000;
+        String[] keys = denseKeys(n, 1);
+        String[] absent = denseKeys(n, 2);
+
+        for (int pass = 0; pass < 3; pass++) {
+            PatriciaTrie<Integer> trie = new PatriciaTrie<Integer>();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                trie.put(keys[i], i);
+            long put = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                assertNotNull(trie.get(keys[i]));
+            long present = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            // short keys collide, so some of these are present after all
+            for (int i = 0; i < n; i++)
+                trie.get(absent[i]);
+            long missing = System.nanoTime() - start;
+
+            System.out.printf("dense keys: put %d ns/op, get present %d ns/op, get other %d ns/op\n",
+                    put / n, present / n, missing / n);
+        }
+    }
+
+    public void testZeroCopyLookups() {
+        int n = 500 * 1000;
+        String[] keys = denseKeys(n, 1);
+        Charset utf8 = Charset.forName("UTF-8");
+        PatriciaTrie<Integer> trie = new PatriciaTrie<Integer>();
+        ByteBuffer direct = ByteBuffer.allocateDirect(n * 12);
+        int[] ends = new int[n];
+        for (int i = 0; i < n; i++) {
+            trie.put(keys[i], i);
+            direct.put(keys[i].getBytes(utf8));
+            ends[i] = direct.position();
+        }
+
+        for (int pass = 0; pass < 3; pass++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                byte[] b = keys[i].getBytes(utf8);
+                assertNotNull(trie.get(b, 0, b.length));
+            }
+            long encodedTime = System.nanoTime() - start;
+            long encodedAllocated = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                assertNotNull(trie.get(keys[i]));
+            long charsTime = System.nanoTime() - start;
+            long charsAllocated = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                direct.limit(ends[i]).position(i == 0 ? 0 : ends[i - 1]);
+                assertNotNull(trie.get(direct));
+            }
+            long bufferTime = System.nanoTime() - start;
+            long bufferAllocated = allocatedBytes() - allocated;
+            direct.clear();
+
+            System.out.printf("getBytes+get: %d ns/op %d bytes/op; get(CharSequence): %d ns/op %d bytes/op; get(direct ByteBuffer): %d ns/op %d bytes/op\n",
+                    encodedTime / n, encodedAllocated / n, charsTime / n, charsAllocated / n, bufferTime / n, bufferAllocated / n);
+        }
+    }
+
+    public void testFreeze() throws Exception {
+        int n = 1000 * 1000;
+        String[] keys = denseKeys(n, 1);
+        long before = usedHeap();
+        PatriciaTrie<Integer> trie = new PatriciaTrie<Integer>();
+        for (int i = 0; i < n; i++)
+            trie.put(keys[i], i);
+        long trieHeap = usedHeap() - before;
+
+        long start = System.nanoTime();
+        FrozenPatriciaTrie<Integer> frozen = trie.freeze();
+        long freezeTime = System.nanoTime() - start;
+        File file = File.createTempFile("soak", ".trie");
+        try {
+            start = System.nanoTime();
+            frozen.write(file, FrozenPatriciaTrie.INTEGERS);
+            long writeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            FrozenPatriciaTrie<Integer> mapped = FrozenPatriciaTrie.open(file, FrozenPatriciaTrie.INTEGERS);
+            long openTime = System.nanoTime() - start;
+            System.out.printf("%d keys: trie ~%d MB of heap; frozen file %d MB; freeze %d ms, write %d ms, open %d us\n",
+                    n, trieHeap >> 20, file.length() >> 20, freezeTime / 1000000, writeTime / 1000000, openTime / 1000);
+
+            for (int pass = 0; pass < 3; pass++) {
+                start = System.nanoTime();
+                for (int i = 0; i < n; i++)
+                    assertNotNull(trie.get(keys[i]));
+                long trieTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < n; i++)
+                    assertNotNull(mapped.get(keys[i]));
+                long mappedTime = System.nanoTime() - start;
+                System.out.printf("get: trie %d ns/op, mapped %d ns/op\n", trieTime / n, mappedTime / n);
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    public void testBulkLoad() {
+        // ascii, so String order is byte order
+        TreeSet<String> sorted = new TreeSet<String>(Arrays.asList(denseKeys(1000 * 1000, 1)));
+        int n = sorted.size();
+        byte[][] keys = new byte[n][];
+        int k = 0;
+        for (String s : sorted)
+            keys[k++] = s.getBytes(Charset.forName("UTF-8"));
+
+        long bestPut = Long.MAX_VALUE, bestLoad = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) {
+            long before = usedHeap();
+            long allocated = allocatedBytes();
+            long start = cpuTime();
+            PatriciaTrie<Integer> trie = new PatriciaTrie<Integer>();
+            for (int i = 0; i < n; i++)
+                trie.put(keys[i], 0, keys[i].length, i);
+            long putTime = cpuTime() - start;
+            long putAllocated = allocatedBytes() - allocated;
+            long putHeap = usedHeap() - before;
+            assertFalse(trie.isEmpty());
+            trie = null;
+
+            before = usedHeap();
+            allocated = allocatedBytes();
+            start = cpuTime();
+            PatriciaTrie.BulkLoader<Integer> loader = PatriciaTrie.bulkLoader();
+            for (int i = 0; i < n; i++)
+                loader.add(keys[i], i);
+            trie = loader.build();
+            long loadTime = cpuTime() - start;
+            long loadAllocated = allocatedBytes() - allocated;
+            long loadHeap = usedHeap() - before;
+
+            for (int i = 0; i < n; i++)
+                assertEquals(i, trie.get(keys[i], 0, keys[i].length));
+
+            System.out.printf("%d sorted keys: put %d cpu ns/op %d bytes allocated/op %d retained/op; " +
+                    "bulk load %d cpu ns/op %d bytes allocated/op %d retained/op\n",
+                    n, putTime / n, putAllocated / n, putHeap / n, loadTime / n, loadAllocated / n, loadHeap / n);
+            assertTrue("bulk load allocated " + loadAllocated + " > " + putAllocated, loadAllocated <= putAllocated);
+            bestPut = Math.min(bestPut, putTime);
+            bestLoad = Math.min(bestLoad, loadTime);
+        }
+        // this thread's time, so the collector's isn't counted; the best pass, as the
+        // first ones mostly time the compiler
+        assertTrue("bulk load took " + bestLoad / n + " > " + bestPut / n + " ns/op", bestLoad <= bestPut);
+    }
+
+    /**
+     * A sliding window of live keys: with removal, the trie's size tracks the window
+     * rather than every key ever stored
+     */
+    public void testChurn() {
+        int window = 200 * 1000;
+        String[] keys = denseKeys(10 * window, 3);
+        PatriciaTrie<Integer> trie = new PatriciaTrie<Integer>();
+        long before = usedHeap();
+        for (int i = 0; i < keys.length; i++) {
+            trie.put(keys[i], i);
+            if (i >= window)
+                trie.remove(keys[i - window]);
+            if ((i + 1) % (2 * window) == 0) {
+                long start = System.nanoTime();
+                for (int j = i - window + 1; j <= i; j++)
+                    trie.get(keys[j]);
+                long getTime = System.nanoTime() - start;
+                System.out.printf("after %d puts: %d keys, ~%d MB, get %d ns/op\n",
+                        i + 1, trie.size(), (usedHeap() - before) >> 20, getTime / window);
+            }
+        }
+        assertTrue(trie.size() <= window);
+    }
+
+    /**
+     * Routing a request path to the longest matching route: one descent, against
+     * probing with get at every prefix length from the longest down
+     */
+    public void testLongestPrefixMatch() {
+        Random r = new Random(4);
+        String[] segments = new String[200];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = Integer.toString(r.nextInt(1 << 20), 36);
+        PatriciaTrie<Integer> routes = new PatriciaTrie<Integer>();
+        for (int i = 0; i < 100 * 1000; i++)
+            routes.put(path(r, segments, 1 + r.nextInt(4)), i);
+
+        int n = 200 * 1000;
+        byte[][] requests = new byte[n][];
+        Charset utf8 = Charset.forName("UTF-8");
+        for (int i = 0; i < n; i++)
+            requests[i] = path(r, segments, 2 + r.nextInt(6)).getBytes(utf8);
+
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            int probed = 0;
+            for (byte[] request : requests) {
+                for (int len = request.length; len >= 0; len--) {
+                    if (routes.get(request, 0, len) != null) {
+                        probed += len;
+                        break;
+                    }
+                }
+            }
+            long probeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int matched = 0;
+            for (byte[] request : requests)
+                matched += Math.max(0, routes.longestPrefixOf(request, 0, request.length));
+            long matchTime = System.nanoTime() - start;
+            assertEquals(probed, matched);
+
+            System.out.printf("longest prefix: repeated get %d ns/op, single descent %d ns/op\n",
+                    probeTime / n, matchTime / n);
+        }
+    }
+
+    private static String path(Random r, String[] segments, int depth) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            b.append('/').append(segments[r.nextInt(segments.length)]);
+        return b.toString();
+    }
+
+    public void testPrimitiveValues() {
+        int n = 1000 * 1000;
+        String[] keys = denseKeys(n, 1);
+
+        for (int pass = 0; pass < 3; pass++) {
+            long before = usedHeap();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            PatriciaTrie<Integer> boxed = new PatriciaTrie<Integer>();
+            for (int i = 0; i < n; i++)
+                boxed.put(keys[i], i);
+            long boxedPut = System.nanoTime() - start;
+            long boxedAllocated = allocatedBytes() - allocated;
+            long boxedHeap = usedHeap() - before;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < n; i++)
+                sum += (Integer) boxed.get(keys[i]);
+            long boxedGet = System.nanoTime() - start;
+            long boxedGetAllocated = allocatedBytes() - allocated;
+            boxed = null;
+
+            before = usedHeap();
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            IntPatriciaTrie ints = new IntPatriciaTrie();
+            for (int i = 0; i < n; i++)
+                ints.put(keys[i], i);
+            long intPut = System.nanoTime() - start;
+            long intAllocated = allocatedBytes() - allocated;
+            long intHeap = usedHeap() - before;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                sum -= ints.get(keys[i], 0);
+            long intGet = System.nanoTime() - start;
+            long intGetAllocated = allocatedBytes() - allocated;
+            assertEquals(0, sum);
+
+            System.out.printf("PatriciaTrie<Integer>: put %d ns/op %d bytes/op, get %d ns/op %d bytes/op, ~%d MB; " +
+                    "IntPatriciaTrie: put %d ns/op %d bytes/op, get %d ns/op %d bytes/op, ~%d MB\n",
+                    boxedPut / n, boxedAllocated / n, boxedGet / n, boxedGetAllocated / n, boxedHeap >> 20,
+                    intPut / n, intAllocated / n, intGet / n, intGetAllocated / n, intHeap >> 20);
+            // no Integer per key
+            assertTrue("int trie allocated " + intAllocated + " >= " + boxedAllocated, intAllocated < boxedAllocated);
+            assertTrue("int trie retained " + intHeap + " >= " + boxedHeap, intHeap < boxedHeap);
+        }
+    }
+
+    public void testArenaLayout() {
+        int n = 1000 * 1000;
+        String[] keys = denseKeys(n, 1);
+        Integer[] values = new Integer[n];
+        for (int i = 0; i < n; i++)
+            values[i] = i;
+
+        for (int pass = 0; pass < 3; pass++) {
+            long before = usedHeap();
+            long start = System.nanoTime();
+            PatriciaTrie<Integer> trie = new PatriciaTrie<Integer>();
+            for (int i = 0; i < n; i++)
+                trie.put(keys[i], values[i]);
+            long put = System.nanoTime() - start;
+            long heap = usedHeap() - before;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                assertNotNull(trie.get(keys[i]));
+            long get = System.nanoTime() - start;
+            trie = null;
+
+            before = usedHeap();
+            start = System.nanoTime();
+            ArenaPatriciaTrie<Integer> arena = new ArenaPatriciaTrie<Integer>();
+            for (int i = 0; i < n; i++)
+                arena.put(keys[i], values[i]);
+            long arenaPut = System.nanoTime() - start;
+            long arenaHeap = usedHeap() - before;
+            arena.compact();
+            long compactedHeap = usedHeap() - before;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                assertNotNull(arena.get(keys[i]));
+            long arenaGet = System.nanoTime() - start;
+
+            System.out.printf("PatriciaTrie: %d bytes/key, put %d ns/op, get %d ns/op; " +
+                    "ArenaPatriciaTrie: %d bytes/key (%d compacted), put %d ns/op, get %d ns/op\n",
+                    heap / n, put / n, get / n, arenaHeap / n, compactedHeap / n, arenaPut / n, arenaGet / n);
+            assertTrue("arena retained " + arenaHeap + " >= " + heap, arenaHeap < heap);
+            assertTrue("compacted arena retained " + compactedHeap + " >= " + heap, compactedHeap < heap);
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    /**
+     * Readers and one writer on the copy-on-write trie, against the plain trie behind a
+     * read/write lock
+     */
+    public void testConcurrentReadWriteThroughput() throws Exception {
+        final int n = 200 * 1000;
+        final String[] keys = denseKeys(2 * n, 1);
+        for (int pass = 0; pass < 2; pass++) {
+            final ConcurrentPatriciaTrie<Integer> cow = new ConcurrentPatriciaTrie<Integer>();
+            final PatriciaTrie<Integer> plain = new PatriciaTrie<Integer>();
+            final ReadWriteLock lock = new ReentrantReadWriteLock();
+            for (int i = 0; i < n; i++) {
+                cow.put(keys[i], i);
+                plain.put(keys[i], i);
+            }
+            long[] c = readWrite(keys, n, new TrieOps() {
+                public void read(String key) {
+                    cow.get(key);
+                }
+
+                public void write(String key, int value) {
+                    cow.put(key, value);
+                }
+            });
+            long[] l = readWrite(keys, n, new TrieOps() {
+                public void read(String key) {
+                    lock.readLock().lock();
+                    try {
+                        plain.get(key);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+
+                public void write(String key, int value) {
+                    lock.writeLock().lock();
+                    try {
+                        plain.put(key, value);
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            });
+            System.out.printf("%d readers + 1 writer, per second: copy-on-write %d reads %d writes; read/write lock %d reads %d writes\n",
+                    READERS, c[0], c[1], l[0], l[1]);
+        }
+    }
+
+    private static final int READERS = 4;
+
+    interface TrieOps {
+        void read(String key);
+
+        void write(String key, int value);
+    }
+
+    /**
+     * @return reads and writes per second over one second of running
+     */
+    private static long[] readWrite(final String[] keys, final int preloaded, final TrieOps ops) throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong reads = new AtomicLong(), writes = new AtomicLong();
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[READERS + 1];
+        for (int t = 0; t < READERS; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    long count = 0;
+                    await(go);
+                    while (!stop.get()) {
+                        ops.read(keys[r.nextInt(preloaded)]);
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                }
+            };
+        }
+        threads[READERS] = new Thread() {
+            public void run() {
+                long count = 0;
+                await(go);
+                for (int i = preloaded; !stop.get(); i = i + 1 < keys.length ? i + 1 : preloaded) {
+                    ops.write(keys[i], i);
+                    count++;
+                }
+                writes.addAndGet(count);
+            }
+        };
+        for (Thread t : threads)
+            t.start();
+        go.countDown();
+        Thread.sleep(1000);
+        stop.set(true);
+        for (Thread t : threads)
+            t.join();
+        return new long[]{reads.get(), writes.get()};
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * CPU time of this thread, or wall time where that isn't measured
+     */
+    private static long cpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static long allocatedBytes() {
+        Object threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+}
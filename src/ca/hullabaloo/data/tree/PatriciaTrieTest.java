@@ -3,6 +3,7 @@ package ca.hullabaloo.data.tree;
 import junit.framework.TestCase;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class PatriciaTrieTest extends TestCase {
@@ -105,6 +106,257 @@ public class PatriciaTrieTest extends TestCase {
         }
     }
 
+    public void testNodesGrowThroughEveryLayout() {
+        // children of "x" go through the 4, 16, 48 and 256 layouts
+        for (char c = 1; c < 128; c++) {
+            trie.put("x" + c, (int) c);
+            trie.put("x" + c + "tail", -c);
+            for (char d = 1; d <= c; d++) {
+                assertEquals((int) d, trie.get("x" + d));
+                assertEquals(-d, trie.get("x" + d + "tail"));
+            }
+        }
+        assertNull(trie.get("x"));
+        assertNull(trie.get("x\u0080"));
+    }
+
+    public void testChildrenAreInUnsignedByteOrder() {
+        trie.put("a\u00e9", 1);
+        trie.put("az", 2);
+        trie.put("a!", 3);
+        String debug = trie.debug();
+        assertTrue(debug, debug.indexOf("!") < debug.indexOf("z"));
+        assertTrue(debug, debug.indexOf("z") < debug.indexOf("\u00e9"));
+        assertEquals(1, trie.get("a\u00e9"));
+    }
+
+    public void testKeysShorterThanADeepEdge() {
+        trie.put("abcdef", 1);
+        trie.put("abxyz", 2);
+        assertNull(trie.get("abcd"));
+        assertNull(trie.get("abx"));
+        assertNull(trie.get("abxyzz"));
+        assertEquals(2, trie.get("abxyz"));
+    }
+
+    public void testByteSlices() throws Exception {
+        byte[] buf = "xxfoobarxx".getBytes("UTF-8");
+        trie.put(buf, 2, 3, 1);
+        trie.put(buf, 2, 6, 2);
+        assertEquals(1, trie.get("foo"));
+        assertEquals(2, trie.get(buf, 2, 6));
+        assertNull(trie.get(buf, 2, 4));
+        assertNull(trie.get(buf, 0, 3));
+        try {
+            trie.get(buf, 8, 3);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testByteBuffers() throws Exception {
+        trie.put("foo", 1);
+        trie.put("foobar", 2);
+        for (ByteBuffer b : new ByteBuffer[]{ByteBuffer.allocate(16), ByteBuffer.allocateDirect(16)}) {
+            b.put("xxfoobar".getBytes("UTF-8")).flip();
+            b.position(2);
+            assertEquals(2, trie.get(b));
+            b.limit(5);
+            assertEquals(1, trie.get(b));
+            assertEquals(2, b.position());
+            b.limit(4);
+            assertNull(trie.get(b));
+            trie.put(b, 3);
+            assertEquals(3, trie.get("fo"));
+            assertEquals(2, b.position());
+            trie.put("fo", null);
+        }
+    }
+
+    public void testCharSequencesMatchTheirUtf8() {
+        String[] keys = {"plain", "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00 smile", "caf", "\u00e9t\u00e9"};
+        for (int i = 0; i < keys.length; i++)
+            trie.put(new StringBuilder(keys[i]), i);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, trie.get(new StringBuilder(keys[i])));
+            assertEquals(i, trie.get(keys[i]));
+        }
+        assertNull(trie.get(new StringBuilder("caf\u00e8")));
+        assertNull(trie.get(new StringBuilder("\ud83d\ude01 smile")));
+        assertNull(trie.get(new StringBuilder("\u4e2d")));
+    }
+
+    public void testUnpairedSurrogatesEncodeLikeGetBytes() {
+        trie.put("a\ud800b", 1);
+        assertEquals(1, trie.get(new StringBuilder("a\ud800b")));
+        assertEquals(1, trie.get("a?b"));
+        trie.put(new StringBuilder("\udc00"), 2);
+        assertEquals(2, trie.get("?"));
+    }
+
+    public void testBulkLoaderMatchesPut() {
+        TreeSet<String> sorted = new TreeSet<String>(randomStrings(2000, 6));
+        // dense fan-out under "x" so loaded nodes use every layout
+        for (char c = 1; c < 128; c++) {
+            sorted.add("x" + c);
+            sorted.add("x" + c + "tail");
+            if (c < 40) sorted.add("y" + c);
+        }
+        sorted.add("");
+        PatriciaTrie.BulkLoader<Integer> loader = PatriciaTrie.bulkLoader();
+        int i = 0;
+        for (String s : sorted) {
+            loader.add(s, i);
+            trie.put(s, i++);
+        }
+        PatriciaTrie<Integer> loaded = loader.build();
+        assertEquals(trie.debug(), loaded.debug());
+
+        i = 0;
+        for (String s : sorted)
+            assertEquals(i++, loaded.get(s));
+        PatriciaTrie<Integer>.Cursor c = loaded.cursor();
+        for (String s : sorted) {
+            assertTrue(c.next());
+            assertEquals(s, c.key());
+        }
+        assertFalse(c.next());
+    }
+
+    public void testBulkLoadedNodesGrow() {
+        PatriciaTrie.BulkLoader<Integer> loader = PatriciaTrie.bulkLoader();
+        loader.add("ab", 1).add("ac", 2).add("ad", 3).add("b", 4);
+        PatriciaTrie<Integer> loaded = loader.build();
+        for (char c = 'e'; c <= 'z'; c++)
+            loaded.put("a" + c, (int) c);
+        loaded.put("a", 0);
+        loaded.put("", -1);
+        assertEquals(1, loaded.get("ab"));
+        assertEquals(3, loaded.get("ad"));
+        assertEquals((int) 'z', loaded.get("az"));
+        assertEquals(0, loaded.get("a"));
+        assertEquals(-1, loaded.get(""));
+        assertEquals(4, loaded.get("b"));
+    }
+
+    public void testBulkLoaderRejectsUnsortedKeys() {
+        PatriciaTrie.BulkLoader<Integer> loader = PatriciaTrie.bulkLoader();
+        loader.add("abc", 1).add("abd", 2);
+        for (String bad : new String[]{"abd", "ab", "abc", "a"}) {
+            try {
+                loader.add(bad, 3);
+                fail(bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        // unsigned order: multi-byte characters come after ascii
+        loader.add("ab\u00e9", 3).add("b", 4);
+        PatriciaTrie<Integer> loaded = loader.build();
+        assertEquals(3, loaded.get("ab\u00e9"));
+        try {
+            loader.add("c", 5);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testRemove() {
+        for (int i = 0; i < dat.length; i++)
+            trie.put(dat[i], i);
+        assertEquals(dat.length, trie.size());
+        assertNull(trie.remove("BA"));
+        assertNull(trie.remove("BACA"));
+        assertEquals(3, trie.remove("BACARDI"));
+        assertNull(trie.get("BACARDI"));
+        assertEquals(0, trie.remove("BAC"));
+        assertNull(trie.remove("BAC"));
+        assertEquals(4, trie.get("BAD"));
+        assertEquals(3, trie.size());
+        trie.put("AB", null);
+        assertEquals(2, trie.size());
+        assertEquals(2, trie.get("AX"));
+        assertEquals(4, trie.remove(new byte[]{'B', 'A', 'D'}, 0, 3));
+        assertEquals(2, trie.remove("AX"));
+        assertTrue(trie.isEmpty());
+        assertEquals("- (null)\n", trie.debug());
+    }
+
+    public void testRemoveMergesEdges() {
+        trie.put("abc", 1);
+        trie.put("abd", 2);
+        trie.put("ab", 3);
+        trie.remove("ab");
+        trie.remove("abd");
+        assertEquals("- (null)\n  abc (1)\n", trie.debug());
+        trie.put("", 4);
+        trie.remove("abc");
+        assertEquals("- (4)\n", trie.debug());
+        assertEquals(1, trie.size());
+    }
+
+    public void testRemoveShrinksThroughEveryLayout() {
+        for (char c = 1; c < 256; c++)
+            trie.put("x" + (char) (c + 0x100), (int) c);
+        for (char c = 255; c > 0; c--) {
+            assertEquals((int) c, trie.remove("x" + (char) (c + 0x100)));
+            for (char d = 1; d < c; d++)
+                assertEquals((int) d, trie.get("x" + (char) (d + 0x100)));
+        }
+        assertTrue(trie.isEmpty());
+        assertEquals("- (null)\n", trie.debug());
+    }
+
+    public void testRandomPutsAndRemovesLeaveACanonicalTree() {
+        Random r = new Random(7);
+        List<String> keys = new ArrayList<String>(randomStrings(300, 4));
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int op = 0; op < 5000; op++) {
+            String k = keys.get(r.nextInt(keys.size()));
+            if (r.nextInt(3) == 0) {
+                assertEquals(expected.remove(k), trie.remove(k));
+            } else {
+                expected.put(k, op);
+                trie.put(k, op);
+            }
+            assertEquals(expected.size(), trie.size());
+        }
+        PatriciaTrie<Integer> fresh = new PatriciaTrie<Integer>();
+        for (Map.Entry<String, Integer> e : expected.entrySet())
+            fresh.put(e.getKey(), e.getValue());
+        assertEquals(fresh.debug(), trie.debug());
+    }
+
+    public void testLongestPrefixMatch() throws Exception {
+        trie.put("/", 1);
+        trie.put("/api", 2);
+        trie.put("/api/v1/", 3);
+        trie.put("/apiary", 4);
+        assertEquals("/api/v1/", trie.longestPrefixOf("/api/v1/users"));
+        assertEquals(3, trie.getLongestPrefixMatch("/api/v1/users"));
+        assertEquals("/api", trie.longestPrefixOf("/api/v1"));
+        assertEquals("/api", trie.longestPrefixOf("/api"));
+        assertEquals("/api", trie.longestPrefixOf("/apia"));
+        assertEquals(4, trie.getLongestPrefixMatch("/apiary/bees"));
+        assertEquals("/", trie.longestPrefixOf("/static"));
+        assertNull(trie.longestPrefixOf("api"));
+        assertNull(trie.getLongestPrefixMatch(""));
+
+        byte[] buf = "xx/api/v2".getBytes("UTF-8");
+        assertEquals(4, trie.longestPrefixOf(buf, 2, 7));
+        assertEquals(2, trie.getLongestPrefixMatch(buf, 2, 7));
+        assertEquals(-1, trie.longestPrefixOf(buf, 0, 9));
+        ByteBuffer b = ByteBuffer.allocateDirect(16);
+        b.put(buf).flip();
+        b.position(2);
+        assertEquals(4, trie.longestPrefixOf(b));
+        assertEquals(2, trie.getLongestPrefixMatch(b));
+        assertEquals(2, b.position());
+
+        trie.put("", 0);
+        assertEquals("", trie.longestPrefixOf("api"));
+        assertEquals(0, trie.getLongestPrefixMatch(""));
+    }
+
     private Set<String> randomStrings(int count, int maxLen) {
         LinkedHashSet<String> result = new LinkedHashSet<String>();
         Random r = new Random();